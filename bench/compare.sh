@@ -0,0 +1,45 @@
+#!/bin/bash
+# Compare the benchmark results of two commits, saved by run.sh:
+#   bench/compare.sh <before> <after>
+# where each is a commit or a results file. Prints each benchmark's score
+# before and after, and the ratio of after to before (for times, lower is
+# better).
+set -e
+cd "$(dirname "$0")/.."
+results() {
+	if [ -f "$1" ]; then
+		echo "$1"
+	else
+		echo "bench/results/$(git rev-parse --short "$1").csv"
+	fi
+}
+before=$(results "$1")
+after=$(results "$2")
+awk -F, '
+	function key(   k, i) {
+		k = $1
+		for (i = 8; i <= NF; i++) {
+			if ($i != "") {
+				k = k " " header[i] "=" $i
+			}
+		}
+		return k
+	}
+	{ gsub(/["\r]/, "") }
+	FNR == 1 {
+		for (i = 1; i <= NF; i++) {
+			header[i] = $i
+			sub(/^Param: /, "", header[i])
+		}
+		next
+	}
+	FNR == NR { score[key()] = $5; next }
+	{
+		k = key()
+		if (k in score) {
+			printf "%-60s %12.3f %12.3f %8.3f %s\n", k, score[k], $5, $5 / score[k], $7
+		} else {
+			printf "%-60s %12s %12.3f %8s %s\n", k, "-", $5, "-", $7
+		}
+	}
+' "$before" "$after"
@@ -0,0 +1,16 @@
+#!/bin/bash
+# Build the simulator and its benchmarks, run the benchmarks, and save the
+# results as bench/results/<commit>.csv, so that runs on different commits
+# can be set side by side with compare.sh. Any arguments go to JMH, e.g.
+#   bench/run.sh ConfigBenchmark -p hosts=1000
+set -e
+cd "$(dirname "$0")/.."
+commit=$(git rev-parse --short HEAD)
+if [ -n "$(git status --porcelain -- src pom.xml bench/src bench/pom.xml)" ]; then
+	commit="$commit-dirty"
+fi
+mvn -B -q install -DskipTests
+mvn -B -q -f bench/pom.xml package
+mkdir -p bench/results
+java -jar bench/target/benchmarks.jar -rf csv -rff "bench/results/$commit.csv" "$@"
+echo "Results saved to bench/results/$commit.csv"
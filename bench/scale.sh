@@ -0,0 +1,47 @@
+#!/bin/bash
+# Build the simulator and run the scale regression harness with the settings
+# in bench/scale.properties. The results, one line of JSON per topology size,
+# are saved as bench/results/scale-<commit>.json.
+#   bench/scale.sh [--baseline <commit>] [--update]
+# With --baseline, the script fails if any size is worse than the results of
+# that commit (or results file), saved by an earlier run of this script in
+# the same job, by more than the tolerance. Without it, the run is checked
+# against the baselines in bench/scale.properties only if scale.absolute is
+# true there. Pass --update to replace those baselines with this run's
+# measurements.
+set -e
+cd "$(dirname "$0")/.."
+args=()
+while [ $# -gt 0 ]; do
+	if [ "$1" = "--baseline" ]; then
+		if [ -f "$2" ]; then
+			baseline="$2"
+		else
+			baseline="bench/results/scale-$(git rev-parse --short "$2").json"
+		fi
+		if [ ! -f "$baseline" ]; then
+			echo "No results for $2: run bench/scale.sh at that commit first" >&2
+			exit 2
+		fi
+		args+=(--baseline "$baseline")
+		shift 2
+	else
+		args+=("$1")
+		shift
+	fi
+done
+commit=$(git rev-parse --short HEAD)
+if [ -n "$(git status --porcelain -- src pom.xml bench/src bench/pom.xml)" ]; then
+	commit="$commit-dirty"
+fi
+if [ "$baseline" = "bench/results/scale-$commit.json" ]; then
+	echo "The baseline is this commit's own results" >&2
+	exit 2
+fi
+mvn -B -q install -DskipTests
+mvn -B -q -f bench/pom.xml package
+mkdir -p bench/results
+java -cp bench/target/benchmarks.jar ibr.sim.ScaleHarness bench/scale.properties "${args[@]}" | tee "bench/results/scale-$commit.json"
+status=${PIPESTATUS[0]}
+echo "Results saved to bench/results/scale-$commit.json"
+exit $status
@@ -0,0 +1,38 @@
+package ibr.sim;
+
+import java.util.Properties;
+
+/**
+ * Topologies for the benchmarks, from the {@link TopologyGenerator}, with
+ * tracing off so that the benchmarks measure the simulator rather than its
+ * log.
+ *
+ * @author glfrazier
+ *
+ */
+public class BenchTopology {
+
+	public static final int FIRST = TopologyGenerator.FIRST;
+
+	public static final int SERVER_PORT = TopologyGenerator.SERVER_PORT;
+
+	private BenchTopology() {
+	}
+
+	public static Properties properties(int n) {
+		Properties props = new TopologyGenerator(n).generate();
+		props.setProperty("trace.level", "OFF");
+		return props;
+	}
+
+	/**
+	 * Create the hosts of a topology in the simulation, without starting
+	 * them.
+	 */
+	public static ApplicationConfigurationServer setUp(int n) throws Exception {
+		ApplicationConfigurationServer config = new ApplicationConfigurationServer(properties(n));
+		Simulation.setUp(config);
+		return config;
+	}
+
+}
@@ -0,0 +1,45 @@
+package ibr.sim;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the configuration: parsing the host specs and assigning every host
+ * its applications.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ConfigBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	public int hosts;
+
+	private Properties props;
+
+	@Setup
+	public void setUp() {
+		props = BenchTopology.properties(hosts);
+	}
+
+	@Benchmark
+	public ApplicationConfigurationServer load() throws Exception {
+		return new ApplicationConfigurationServer(props);
+	}
+
+}
@@ -0,0 +1,52 @@
+package ibr.sim;
+
+import java.net.InetSocketAddress;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Choosing the destination of a transaction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class DestinationBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	public int hosts;
+
+	private ApplicationConfigurationServer config;
+
+	private SplittableRandom random = new SplittableRandom(1);
+
+	@Setup
+	public void setUp() throws Exception {
+		config = new ApplicationConfigurationServer(BenchTopology.properties(hosts));
+	}
+
+	@Benchmark
+	public InetSocketAddress getDestinationAddress() {
+		return config.getDestinationAddress("client", random);
+	}
+
+	@Benchmark
+	public int getDestinationIPv4() {
+		return config.getDestinationIPv4("client", random);
+	}
+
+}
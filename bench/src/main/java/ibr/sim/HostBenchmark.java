@@ -0,0 +1,64 @@
+package ibr.sim;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Moving messages between hosts over the ideal link: a request from a client
+ * to its server and the response, and a message to a port on which nothing
+ * listens.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HostBenchmark {
+
+	private Host server;
+
+	private Host client;
+
+	private int clientPort;
+
+	private long id;
+
+	@Setup
+	public void setUp() throws Exception {
+		BenchTopology.setUp(2);
+		server = Simulation.getHost(BenchTopology.FIRST);
+		client = Simulation.getHost(BenchTopology.FIRST + 1);
+		clientPort = client.getApplications().iterator().next().getCommsPort().getPort();
+	}
+
+	private SimulationMessage request(int dstPort) {
+		return SimulationMessage.obtain(++id, SimulationMessage.Role.REQUEST, SimulationMessage.Type.APPLICATION,
+				client.getIPv4(), server.getIPv4(), clientPort, dstPort);
+	}
+
+	@Benchmark
+	public long roundTrip() {
+		client.send(request(BenchTopology.SERVER_PORT));
+		Simulation.getScheduler().runUntil(Long.MAX_VALUE);
+		return Simulation.getScheduler().getEventCount();
+	}
+
+	@Benchmark
+	public long sendAndReceive() {
+		client.send(request(BenchTopology.SERVER_PORT + 1));
+		Simulation.getScheduler().runUntil(Long.MAX_VALUE);
+		return Simulation.getScheduler().getEventCount();
+	}
+
+}
@@ -0,0 +1,61 @@
+package ibr.sim;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creating requests and their responses, with and without the message pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+
+	@Param({ "0", "1024" })
+	public int pool;
+
+	private long id;
+
+	@Setup
+	public void setUp() {
+		MessagePool.setCapacity(pool);
+	}
+
+	private SimulationMessage request() {
+		return SimulationMessage.obtain(++id, SimulationMessage.Role.REQUEST, SimulationMessage.Type.APPLICATION,
+				BenchTopology.FIRST + 1, BenchTopology.FIRST, 16000, BenchTopology.SERVER_PORT);
+	}
+
+	@Benchmark
+	public long obtain() {
+		SimulationMessage msg = request();
+		long result = msg.getId();
+		msg.recycle();
+		return result;
+	}
+
+	@Benchmark
+	public long createResponse() {
+		SimulationMessage msg = request();
+		SimulationMessage response = msg.createResponse(++id);
+		long result = response.getInResponseTo();
+		msg.recycle();
+		response.recycle();
+		return result;
+	}
+
+}
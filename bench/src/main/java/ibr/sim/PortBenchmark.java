@@ -0,0 +1,76 @@
+package ibr.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ibr.core.Message;
+
+/**
+ * Delivering messages to a port and taking them from it, one at a time and
+ * in batches, as the receiving loops of a real-time run do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PortBenchmark {
+
+	private static final int BATCH = 64;
+
+	private SimCommsPort port;
+
+	private final List<Message> batch = new ArrayList<>(BATCH);
+
+	private long id;
+
+	@Setup
+	public void setUp() throws Exception {
+		BenchTopology.setUp(2);
+		// A port with no listener, like the port of a real-time application
+		port = new SimCommsPort(Simulation.getHost(BenchTopology.FIRST), BenchTopology.SERVER_PORT);
+	}
+
+	private SimulationMessage request() {
+		return SimulationMessage.obtain(++id, SimulationMessage.Role.REQUEST, SimulationMessage.Type.APPLICATION,
+				BenchTopology.FIRST + 1, BenchTopology.FIRST, 16000, BenchTopology.SERVER_PORT);
+	}
+
+	@Benchmark
+	public long deliverAndGetNextMsg() throws InterruptedException {
+		port.deliver(request());
+		SimulationMessage msg = (SimulationMessage) port.getNextMsg();
+		long result = msg.getId();
+		msg.recycle();
+		return result;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int deliverAndDrain() {
+		for (int i = 0; i < BATCH; i++) {
+			port.deliver(request());
+		}
+		int n = port.drainTo(batch, BATCH);
+		for (int i = 0; i < n; i++) {
+			((SimulationMessage) batch.get(i)).recycle();
+		}
+		batch.clear();
+		return n;
+	}
+
+}
@@ -0,0 +1,245 @@
+package ibr.sim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the simulator end to end on generated topologies of increasing size
+ * and checks the results against baselines. Each size runs in a JVM of its
+ * own, so that its heap and threads are its alone. For each size, one line of
+ * JSON reports the events fired per second of wall time, the heap per host
+ * once the hosts have been created, the peak number of threads and the time
+ * taken to load the configuration and create the hosts.
+ * <p>
+ * The sizes, the simulated duration and the tolerances are read from a
+ * properties file (default <code>bench/scale.properties</code>). With
+ * <code>--baseline</code>, each size is checked against the results of an
+ * earlier run, saved by <code>bench/scale.sh</code>; the runs should be made
+ * on the same machine in the same job, say at the base and the head of a
+ * change, since events per second and startup time depend on the machine.
+ * Without it, the sizes are checked against the baselines in the properties
+ * file only if <code>scale.absolute</code> is true there, and otherwise are
+ * just reported. A size fails when a measurement is worse than its baseline
+ * by more than its tolerance, a factor: with a tolerance of 2, doubling the
+ * heap per host or halving the events per second fails. The harness exits
+ * with status 1 if any size fails. With <code>--update</code>, the file's
+ * baselines are replaced by this run's measurements.
+ *
+ * <pre>
+ * java -cp bench/target/benchmarks.jar ibr.sim.ScaleHarness [&lt;file&gt;] [--baseline &lt;results&gt;] [--update]
+ * </pre>
+ *
+ * @author glfrazier
+ *
+ */
+public class ScaleHarness {
+
+	private static final String[] MEASUREMENTS = { "eventsPerSecond", "bytesPerHost", "peakThreads",
+			"startupMillis" };
+
+	/**
+	 * The tolerance that governs each measurement, and whether more is worse.
+	 */
+	private static final String[] TOLERANCES = { "throughput", "memory", "threads", "startup" };
+
+	private static final boolean[] HIGHER_IS_WORSE = { false, true, true, true };
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("--probe")) {
+			probe(Integer.parseInt(args[1]), Double.parseDouble(args[2]), Double.parseDouble(args[3]));
+			return;
+		}
+		String filename = "bench/scale.properties";
+		String results = null;
+		boolean update = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--update")) {
+				update = true;
+			} else if (args[i].equals("--baseline") && i + 1 < args.length) {
+				results = args[++i];
+			} else {
+				filename = args[i];
+			}
+		}
+		Properties settings = new Properties();
+		try (InputStream in = new FileInputStream(filename)) {
+			settings.load(in);
+		}
+		Properties limits;
+		if (results != null) {
+			limits = readResults(new File(results));
+		} else if (Boolean.parseBoolean(settings.getProperty("scale.absolute", "false").trim())) {
+			limits = settings;
+		} else {
+			limits = new Properties();
+		}
+		double duration = Double.parseDouble(settings.getProperty("scale.duration", "10").trim());
+		double serverFraction = Double.parseDouble(settings.getProperty("scale.serverFraction", "0.01").trim());
+		String heap = settings.getProperty("scale.heap", "2g").trim();
+		boolean failed = false;
+		List<String> baselines = new ArrayList<>();
+		for (String size : settings.getProperty("scale.hosts", "1000").split(",")) {
+			int n = Integer.parseInt(size.trim());
+			Properties result = runProbe(n, serverFraction, duration, heap);
+			List<String> failures = new ArrayList<>();
+			StringBuilder json = new StringBuilder("{\"hosts\":" + n + ",\"events\":" + result.getProperty("events"));
+			for (int i = 0; i < MEASUREMENTS.length; i++) {
+				double value = Double.parseDouble(result.getProperty(MEASUREMENTS[i]));
+				json.append(",\"").append(MEASUREMENTS[i]).append("\":").append(result.getProperty(MEASUREMENTS[i]));
+				String key = "baseline." + n + "." + MEASUREMENTS[i];
+				baselines.add(key + ": " + result.getProperty(MEASUREMENTS[i]));
+				String baseline = limits.getProperty(key);
+				if (baseline == null) {
+					continue;
+				}
+				double limit = Double.parseDouble(baseline.trim());
+				double tolerance = Double.parseDouble(settings.getProperty("tolerance." + TOLERANCES[i], "2").trim());
+				if (HIGHER_IS_WORSE[i] ? value > limit * tolerance : value < limit / tolerance) {
+					failures.add(MEASUREMENTS[i]);
+				}
+			}
+			json.append(",\"pass\":").append(failures.isEmpty()).append(",\"failures\":[");
+			for (int i = 0; i < failures.size(); i++) {
+				json.append(i == 0 ? "\"" : ",\"").append(failures.get(i)).append('"');
+			}
+			json.append("]}");
+			System.out.println(json);
+			failed |= !failures.isEmpty();
+		}
+		if (update) {
+			updateBaselines(new File(filename), baselines);
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Run one size in a JVM of its own.
+	 *
+	 * @return the measurements that the probe reported
+	 */
+	private static Properties runProbe(int n, double serverFraction, double duration, String heap)
+			throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder pb = new ProcessBuilder(java, "-Xmx" + heap, "-cp", System.getProperty("java.class.path"),
+				ScaleHarness.class.getName(), "--probe", Integer.toString(n), Double.toString(serverFraction),
+				Double.toString(duration));
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process p = pb.start();
+		Properties result = new Properties();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("scale.")) {
+					int eq = line.indexOf('=');
+					result.setProperty(line.substring("scale.".length(), eq), line.substring(eq + 1));
+				}
+			}
+		}
+		if (p.waitFor() != 0 || result.getProperty("events") == null) {
+			throw new IOException("The run of " + n + " hosts failed");
+		}
+		return result;
+	}
+
+	/**
+	 * Create and run a topology of <code>n</code> hosts in this JVM, and
+	 * print its measurements.
+	 */
+	private static void probe(int n, double serverFraction, double duration) throws Exception {
+		Properties props = new TopologyGenerator(n).setServerFraction(serverFraction).setDuration(duration)
+				.generate();
+		props.setProperty("trace.level", "OFF");
+		long before = usedHeap();
+		long start = System.nanoTime();
+		ApplicationConfigurationServer config = new ApplicationConfigurationServer(props);
+		Simulation.setUp(config);
+		long startupNanos = System.nanoTime() - start;
+		long after = usedHeap();
+		start = System.nanoTime();
+		Simulation.run(config);
+		long runNanos = System.nanoTime() - start;
+		long events = Simulation.getEventCount();
+		System.out.println("scale.events=" + events);
+		System.out.println("scale.eventsPerSecond=" + Math.round(events / (runNanos / 1.0e9)));
+		System.out.println("scale.bytesPerHost=" + (after - before) / n);
+		System.out.println("scale.peakThreads=" + ManagementFactory.getThreadMXBean().getPeakThreadCount());
+		System.out.println("scale.startupMillis=" + startupNanos / 1000000L);
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Read the results of an earlier run, one line of JSON per size, as
+	 * baselines keyed the way the settings file keys them.
+	 */
+	private static Properties readResults(File file) throws IOException {
+		Properties baselines = new Properties();
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			String hosts = jsonNumber(line, "hosts");
+			if (hosts == null) {
+				continue;
+			}
+			for (String m : MEASUREMENTS) {
+				String value = jsonNumber(line, m);
+				if (value != null) {
+					baselines.setProperty("baseline." + hosts + "." + m, value);
+				}
+			}
+		}
+		return baselines;
+	}
+
+	/**
+	 * @return the number that a key has in a line of the harness's JSON, or
+	 *         null if the line does not have the key
+	 */
+	private static String jsonNumber(String line, String key) {
+		String name = "\"" + key + "\":";
+		int i = line.indexOf(name);
+		if (i < 0) {
+			return null;
+		}
+		int start = i + name.length();
+		int end = start;
+		while (end < line.length() && "-+.0123456789eE".indexOf(line.charAt(end)) >= 0) {
+			end++;
+		}
+		return end > start ? line.substring(start, end) : null;
+	}
+
+	/**
+	 * Replace the baselines in the settings file, keeping its other lines.
+	 */
+	private static void updateBaselines(File file, List<String> baselines) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			if (!line.startsWith("baseline.")) {
+				lines.add(line);
+			}
+		}
+		lines.addAll(baselines);
+		try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8)) {
+			for (String line : lines) {
+				out.println(line);
+			}
+		}
+	}
+
+}
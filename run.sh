@@ -1,2 +1,2 @@
 #!/bin/bash
-java -cp bin ibr.sim.Simulation data/config.prop
+java -cp target/classes ibr.sim.Simulation data/config.prop
@@ -1,13 +1,45 @@
-package ibr.core;
-
-import java.net.InetAddress;
-
-public interface CommsPort {
-
-	public void sendMsg(Message m);
-	
-	Message getNextMsg() throws InterruptedException;
-
-	public int getPort();
-
-}
+package ibr.core;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface CommsPort {
+
+	public void sendMsg(Message m);
+
+	/**
+	 * Send several messages, in order. Transports that can send a batch more
+	 * cheaply than its messages one by one override this.
+	 */
+	public default void sendMsgs(List<? extends Message> msgs) {
+		for (int i = 0; i < msgs.size(); i++) {
+			sendMsg(msgs.get(i));
+		}
+	}
+	
+	Message getNextMsg() throws InterruptedException;
+
+	/**
+	 * @return the next message, or null if no message is waiting
+	 */
+	Message pollNextMsg();
+
+	/**
+	 * Move up to <code>max</code> waiting messages, in order, into a
+	 * collection, without waiting for more to arrive.
+	 *
+	 * @return the number of messages moved
+	 */
+	public default int drainTo(Collection<? super Message> c, int max) {
+		int n = 0;
+		Message m;
+		while (n < max && (m = pollNextMsg()) != null) {
+			c.add(m);
+			n++;
+		}
+		return n;
+	}
+
+	public int getPort();
+
+}
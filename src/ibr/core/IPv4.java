@@ -0,0 +1,81 @@
+package ibr.core;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Conversions between IPv4 addresses and their packed, 32-bit integer form.
+ * The most significant byte of the int is the first octet of the address.
+ *
+ * @author glfrazier
+ *
+ */
+public class IPv4 {
+
+	private IPv4() {
+	}
+
+	public static int pack(InetAddress addr) {
+		byte[] b = addr.getAddress();
+		if (b.length != 4) {
+			throw new IllegalArgumentException(addr + " is not an IPv4 address");
+		}
+		return pack(b[0] & 0xff, b[1] & 0xff, b[2] & 0xff, b[3] & 0xff);
+	}
+
+	public static int pack(int a, int b, int c, int d) {
+		return (a << 24) | (b << 16) | (c << 8) | d;
+	}
+
+	public static InetAddress unpack(int addr) {
+		byte[] b = { (byte) (addr >>> 24), (byte) (addr >>> 16), (byte) (addr >>> 8), (byte) addr };
+		try {
+			return InetAddress.getByAddress(b);
+		} catch (UnknownHostException e) {
+			// Cannot happen: the array is always four bytes long
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Parse a dotted-quad address without consulting any name service.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the string is not four decimal octets separated by dots
+	 */
+	public static int parse(String s) {
+		int addr = 0;
+		int octets = 0;
+		int i = 0;
+		int n = s.length();
+		while (i < n) {
+			int octet = 0;
+			int digits = 0;
+			char ch;
+			while (i < n && (ch = s.charAt(i)) >= '0' && ch <= '9') {
+				octet = octet * 10 + (ch - '0');
+				digits++;
+				i++;
+			}
+			if (digits == 0 || digits > 3 || octet > 255 || ++octets > 4) {
+				throw new IllegalArgumentException("Not an IPv4 address: " + s);
+			}
+			addr = (addr << 8) | octet;
+			if (i < n) {
+				if (s.charAt(i) != '.' || i == n - 1) {
+					throw new IllegalArgumentException("Not an IPv4 address: " + s);
+				}
+				i++;
+			}
+		}
+		if (octets != 4) {
+			throw new IllegalArgumentException("Not an IPv4 address: " + s);
+		}
+		return addr;
+	}
+
+	public static String toString(int addr) {
+		return (addr >>> 24) + "." + ((addr >>> 16) & 0xff) + "." + ((addr >>> 8) & 0xff) + "." + (addr & 0xff);
+	}
+
+}
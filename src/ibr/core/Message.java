@@ -1,16 +1,31 @@
-package ibr.core;
-
-import java.net.InetAddress;
-
-public interface Message {
-
-	public InetAddress getSrcAddr();
-
-	public InetAddress getDstAddr();
-
-	public int getSrcPort();
-
-	public int getDstPort();
-
-
-}
+package ibr.core;
+
+import java.net.InetAddress;
+
+public interface Message {
+
+	public InetAddress getSrcAddr();
+
+	public InetAddress getDstAddr();
+
+	public int getSrcPort();
+
+	public int getDstPort();
+
+	/**
+	 * @return the source address, packed as by {@link IPv4#pack(InetAddress)}
+	 */
+	public default int getSrcIPv4() {
+		return IPv4.pack(getSrcAddr());
+	}
+
+	/**
+	 * @return the destination address, packed as by
+	 *         {@link IPv4#pack(InetAddress)}
+	 */
+	public default int getDstIPv4() {
+		return IPv4.pack(getDstAddr());
+	}
+
+
+}
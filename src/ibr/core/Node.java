@@ -1,13 +1,22 @@
-package ibr.core;
-
-import java.util.Queue;
-
-public class Node {
-	
-	private Queue<Message> unsendableQueue;
-
-	public Queue<Message> getUnsendableQueue() {
-		return unsendableQueue;
-	}
-
-}
+package ibr.core;
+
+public class Node {
+	
+	private UnsendableQueue unsendableQueue;
+
+	public Node() {
+		this(new UnsendableQueue());
+	}
+
+	public Node(UnsendableQueue unsendableQueue) {
+		this.unsendableQueue = unsendableQueue;
+	}
+
+	/**
+	 * @return the messages waiting for their destinations to become reachable
+	 */
+	public UnsendableQueue getUnsendableQueue() {
+		return unsendableQueue;
+	}
+
+}
@@ -0,0 +1,190 @@
+package ibr.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages that cannot be sent yet because their destination has no tunnel,
+ * held per destination until the tunnel comes up. Each destination may hold
+ * only so many messages, and a message that waits longer than the timeout is
+ * given up on.
+ * <p>
+ * The queue records how long flushed messages waited and how many were
+ * rejected or timed out, so that the first-packet latency and the loss caused
+ * by tunnel set-up can be measured.
+ *
+ * @author glfrazier
+ *
+ */
+public class UnsendableQueue {
+
+	public static final int DEFAULT_CAPACITY = 64;
+
+	public static final long DEFAULT_TIMEOUT_NANOS = 10000000000L;
+
+	private static class Pending {
+		final Message msg;
+		final long queued;
+
+		Pending(Message msg, long queued) {
+			this.msg = msg;
+			this.queued = queued;
+		}
+	}
+
+	private final int capacity;
+
+	private final long timeoutNanos;
+
+	private final Map<Integer, ArrayDeque<Pending>> queues = new HashMap<>();
+
+	private int size;
+
+	private long flushed;
+
+	private long waitNanos;
+
+	private long maxWaitNanos;
+
+	private long rejected;
+
+	private long expired;
+
+	public UnsendableQueue() {
+		this(DEFAULT_CAPACITY, DEFAULT_TIMEOUT_NANOS);
+	}
+
+	/**
+	 * @param capacity
+	 *            the most messages held for any one destination
+	 * @param timeoutNanos
+	 *            how long a message may wait before it is given up on
+	 */
+	public UnsendableQueue(int capacity, long timeoutNanos) {
+		this.capacity = capacity;
+		this.timeoutNanos = timeoutNanos;
+	}
+
+	/**
+	 * Hold a message until its destination can be reached.
+	 *
+	 * @return false if the destination already has as many messages waiting
+	 *         as it may, in which case the message was not added
+	 */
+	public synchronized boolean add(Message m, long now) {
+		int dst = m.getDstIPv4();
+		ArrayDeque<Pending> q = queues.get(dst);
+		if (q == null) {
+			q = new ArrayDeque<>();
+			queues.put(dst, q);
+		}
+		if (q.size() >= capacity) {
+			rejected++;
+			return false;
+		}
+		q.add(new Pending(m, now));
+		size++;
+		return true;
+	}
+
+	/**
+	 * Remove, in the order they were added, every message waiting for a
+	 * destination that can now be reached.
+	 */
+	public synchronized List<Message> flush(int dst, long now) {
+		ArrayDeque<Pending> q = queues.remove(dst);
+		if (q == null) {
+			return Collections.emptyList();
+		}
+		List<Message> result = new ArrayList<>(q.size());
+		for (Pending p : q) {
+			long wait = now - p.queued;
+			waitNanos += wait;
+			maxWaitNanos = Math.max(maxWaitNanos, wait);
+			result.add(p.msg);
+		}
+		flushed += result.size();
+		size -= result.size();
+		return result;
+	}
+
+	/**
+	 * Remove every message waiting for a destination that cannot be reached.
+	 */
+	public synchronized List<Message> discard(int dst) {
+		ArrayDeque<Pending> q = queues.remove(dst);
+		if (q == null) {
+			return Collections.emptyList();
+		}
+		List<Message> result = new ArrayList<>(q.size());
+		for (Pending p : q) {
+			result.add(p.msg);
+		}
+		size -= result.size();
+		return result;
+	}
+
+	/**
+	 * Remove every message that has waited longer than the timeout.
+	 */
+	public synchronized List<Message> expire(long now) {
+		List<Message> result = new ArrayList<>();
+		Iterator<ArrayDeque<Pending>> it = queues.values().iterator();
+		while (it.hasNext()) {
+			ArrayDeque<Pending> q = it.next();
+			while (!q.isEmpty() && now - q.peek().queued > timeoutNanos) {
+				result.add(q.poll().msg);
+			}
+			if (q.isEmpty()) {
+				it.remove();
+			}
+		}
+		expired += result.size();
+		size -= result.size();
+		return result;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public long getTimeoutNanos() {
+		return timeoutNanos;
+	}
+
+	public synchronized long getFlushedCount() {
+		return flushed;
+	}
+
+	/**
+	 * @return the total time, in nanoseconds, that flushed messages waited
+	 */
+	public synchronized long getWaitNanos() {
+		return waitNanos;
+	}
+
+	public synchronized long getMaxWaitNanos() {
+		return maxWaitNanos;
+	}
+
+	/**
+	 * @return the number of messages refused because their destination's
+	 *         queue was full
+	 */
+	public synchronized long getRejectedCount() {
+		return rejected;
+	}
+
+	/**
+	 * @return the number of messages given up on after waiting too long
+	 */
+	public synchronized long getExpiredCount() {
+		return expired;
+	}
+
+}
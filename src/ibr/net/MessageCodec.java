@@ -0,0 +1,148 @@
+package ibr.net;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+import ibr.core.Message;
+
+import ibr.sim.SimulationMessage;
+
+/**
+ * The wire form of a {@link SimulationMessage}: a fixed layout of
+ * {@link #ENCODED_SIZE} bytes in network byte order.
+ *
+ * <pre>
+ *  0  version (1)   type (1)   role (1)   reserved (1)
+ *  4  source address (4)
+ *  8  destination address (4)
+ * 12  source port (2)          destination port (2)
+ * 16  packets (2)              reserved (2)
+ * 20  ID (8)
+ * 28  ID of the request answered, or 0 (8)
+ * 36  subject (4)
+ * </pre>
+ *
+ * Messages are written to and read from the buffer's current position, with
+ * no intermediate objects. Because every message has the same size, a batch
+ * is simply messages laid end to end: a buffer of <i>n</i> &times;
+ * {@link #ENCODED_SIZE} bytes holds <i>n</i> messages, and needs no header.
+ *
+ * @author glfrazier
+ *
+ */
+public class MessageCodec {
+
+	public static final int VERSION = 1;
+
+	public static final int ENCODED_SIZE = 40;
+
+	private static final SimulationMessage.Type[] TYPES = SimulationMessage.Type.values();
+
+	private static final SimulationMessage.Role[] ROLES = SimulationMessage.Role.values();
+
+	private MessageCodec() {
+	}
+
+	/**
+	 * Write a message at the buffer's position, advancing it by
+	 * {@link #ENCODED_SIZE}.
+	 */
+	public static void encode(SimulationMessage msg, ByteBuffer buf) {
+		encode(buf, msg.getType().ordinal(), msg.getRole().ordinal(), msg.getSrcIPv4(), msg.getDstIPv4(),
+				msg.getSrcPort(), msg.getDstPort(), msg.getPackets(), msg.getId(), msg.getInResponseTo(),
+				msg.getSubject());
+	}
+
+	/**
+	 * Write a message, given as its fields, at the buffer's position. This is
+	 * for callers, such as the trace, that keep copies of a message's fields
+	 * rather than the message.
+	 */
+	public static void encode(ByteBuffer buf, int type, int role, int src, int dst, int srcPort, int dstPort,
+			int packets, long id, long inResponseTo, int subject) {
+		buf.put((byte) VERSION);
+		buf.put((byte) type);
+		buf.put((byte) role);
+		buf.put((byte) 0);
+		buf.putInt(src);
+		buf.putInt(dst);
+		buf.putShort((short) srcPort);
+		buf.putShort((short) dstPort);
+		buf.putShort((short) packets);
+		buf.putShort((short) 0);
+		buf.putLong(id);
+		buf.putLong(inResponseTo);
+		buf.putInt(subject);
+	}
+
+	/**
+	 * Write as many of the messages, starting at <code>from</code>, as fit in
+	 * the buffer's remaining space.
+	 *
+	 * @return the number of messages written
+	 */
+	public static int encode(List<? extends Message> msgs, int from, ByteBuffer buf) {
+		int n = Math.min(msgs.size() - from, buf.remaining() / ENCODED_SIZE);
+		for (int i = 0; i < n; i++) {
+			encode((SimulationMessage) msgs.get(from + i), buf);
+		}
+		return n;
+	}
+
+	/**
+	 * Read every whole message between the buffer's position and its limit.
+	 * Messages that are not of this version are skipped.
+	 *
+	 * @return the number of messages added to <code>out</code>
+	 */
+	public static int decode(ByteBuffer buf, Collection<? super SimulationMessage> out) {
+		int n = 0;
+		while (buf.remaining() >= ENCODED_SIZE) {
+			try {
+				out.add(decode(buf));
+				n++;
+			} catch (IllegalArgumentException e) {
+				// decode() has skipped the bad message
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Read a message at the buffer's position, advancing it by
+	 * {@link #ENCODED_SIZE}. The message is obtained from the current thread's
+	 * pool.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the bytes are not a message of this version
+	 */
+	public static SimulationMessage decode(ByteBuffer buf) {
+		if (buf.remaining() < ENCODED_SIZE) {
+			throw new IllegalArgumentException("Truncated message: " + buf.remaining() + " bytes");
+		}
+		int version = buf.get();
+		int type = buf.get();
+		int role = buf.get();
+		buf.get();
+		if (version != VERSION || type < 0 || type >= TYPES.length || role < 0 || role >= ROLES.length) {
+			buf.position(buf.position() + ENCODED_SIZE - 4);
+			throw new IllegalArgumentException("Not a version " + VERSION + " message");
+		}
+		int src = buf.getInt();
+		int dst = buf.getInt();
+		int srcPort = buf.getShort() & 0xffff;
+		int dstPort = buf.getShort() & 0xffff;
+		int packets = buf.getShort();
+		buf.getShort();
+		long id = buf.getLong();
+		long inResponseTo = buf.getLong();
+		int subject = buf.getInt();
+		SimulationMessage msg = SimulationMessage.obtain(id, ROLES[role], TYPES[type], src, dst, srcPort, dstPort);
+		msg.setPackets(Math.max(packets, 1));
+		msg.setInResponseTo(inResponseTo);
+		msg.setSubject(subject);
+		return msg;
+	}
+
+}
@@ -0,0 +1,299 @@
+package ibr.net;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ibr.core.CommsPort;
+import ibr.core.IPv4;
+import ibr.core.Message;
+import ibr.sim.MessageQueue;
+import ibr.sim.SimulationMessage;
+import ibr.sim.Trace;
+
+/**
+ * A {@link CommsPort} over a real UDP socket, for the
+ * {@link ibr.core.ComponentFactory.Context#LINUX} context. Messages are sent
+ * in the form given by {@link MessageCodec}, to the destination address and
+ * port in their headers; with hosts in 127.0.0.0/8, every host of a
+ * configuration can run on one machine over loopback. A datagram carries one
+ * message, or, from {@link #sendMsgs(List)}, up to {@link #MAX_BATCH}
+ * consecutive messages to the same destination.
+ * <p>
+ * Sends are non-blocking and made on the sender's thread, from a per-thread
+ * direct buffer; a datagram the socket cannot take at once is dropped and
+ * its messages counted. Receiving is done for every port by one selector
+ * thread, which decodes each datagram into the port's {@link MessageQueue},
+ * from which the application takes messages as it does from a simulated
+ * port.
+ *
+ * @author glfrazier
+ *
+ */
+public class UdpCommsPort implements CommsPort {
+
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	/**
+	 * The most messages sent in one datagram, which keeps a datagram within
+	 * 64 KB.
+	 */
+	public static final int MAX_BATCH = 1024;
+
+	private static final ThreadLocal<ByteBuffer> SEND_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(MAX_BATCH * MessageCodec.ENCODED_SIZE);
+		}
+	};
+
+	private final InetAddress addr;
+
+	private final int ipv4;
+
+	private final int port;
+
+	private final DatagramChannel channel;
+
+	private volatile MessageQueue queue = new MessageQueue(DEFAULT_CAPACITY, MessageQueue.Policy.TAIL_DROP);
+
+	private final AtomicLong sendDrops = new AtomicLong();
+
+	private final AtomicLong malformed = new AtomicLong();
+
+	public UdpCommsPort(InetAddress addr, int port) {
+		this.addr = addr;
+		this.ipv4 = IPv4.pack(addr);
+		this.port = port;
+		try {
+			channel = DatagramChannel.open(StandardProtocolFamily.INET);
+			channel.configureBlocking(false);
+			channel.bind(new InetSocketAddress(addr, port));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot bind " + IPv4.toString(ipv4) + ":" + port, e);
+		}
+		SelectorLoop.register(this);
+	}
+
+	@Override
+	public int getPort() {
+		return port;
+	}
+
+	public InetAddress getAddr() {
+		return addr;
+	}
+
+	@Override
+	public void sendMsg(Message m) {
+		SimulationMessage msg = (SimulationMessage) m;
+		ByteBuffer buf = SEND_BUFFER.get();
+		buf.clear();
+		MessageCodec.encode(msg, buf);
+		buf.flip();
+		if (!send(buf, msg)) {
+			drop(msg);
+			sendDrops.incrementAndGet();
+			return;
+		}
+		msg.recycle();
+	}
+
+	/**
+	 * Send the messages, packing each run of consecutive messages to the same
+	 * destination into as few datagrams as possible.
+	 */
+	@Override
+	public void sendMsgs(List<? extends Message> msgs) {
+		ByteBuffer buf = SEND_BUFFER.get();
+		int i = 0;
+		while (i < msgs.size()) {
+			SimulationMessage first = (SimulationMessage) msgs.get(i);
+			int run = 1;
+			while (i + run < msgs.size() && run < MAX_BATCH && sameDestination(first, msgs.get(i + run))) {
+				run++;
+			}
+			buf.clear();
+			buf.limit(run * MessageCodec.ENCODED_SIZE);
+			MessageCodec.encode(msgs, i, buf);
+			buf.flip();
+			boolean sent = send(buf, first);
+			for (int j = i; j < i + run; j++) {
+				SimulationMessage msg = (SimulationMessage) msgs.get(j);
+				if (sent) {
+					msg.recycle();
+				} else {
+					drop(msg);
+				}
+			}
+			if (!sent) {
+				sendDrops.addAndGet(run);
+			}
+			i += run;
+		}
+	}
+
+	private static boolean sameDestination(Message a, Message b) {
+		return a.getDstIPv4() == b.getDstIPv4() && a.getDstPort() == b.getDstPort();
+	}
+
+	private boolean send(ByteBuffer buf, SimulationMessage msg) {
+		try {
+			return channel.send(buf, new InetSocketAddress(msg.getDstAddr(), msg.getDstPort())) > 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public Message getNextMsg() throws InterruptedException {
+		return queue.take();
+	}
+
+	@Override
+	public Message pollNextMsg() {
+		return queue.poll();
+	}
+
+	@Override
+	public int drainTo(Collection<? super Message> c, int max) {
+		return queue.drainTo(c, max);
+	}
+
+	/**
+	 * Replace this port's queue. Must be called before any message arrives at
+	 * the port.
+	 */
+	public void setQueue(MessageQueue queue) {
+		this.queue = queue;
+	}
+
+	public MessageQueue getQueue() {
+		return queue;
+	}
+
+	/**
+	 * @return the number of messages that the socket could not send
+	 */
+	public long getSendDropCount() {
+		return sendDrops.get();
+	}
+
+	/**
+	 * @return the number of datagrams received that were not messages
+	 */
+	public long getMalformedCount() {
+		return malformed.get();
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void drop(SimulationMessage msg) {
+		Trace.message(Trace.Kind.DROP, ipv4, port, msg);
+		msg.recycle();
+	}
+
+	/**
+	 * Read every datagram waiting at the socket into the queue.
+	 */
+	private void receive(ByteBuffer buf, List<SimulationMessage> batch) throws IOException {
+		while (true) {
+			buf.clear();
+			if (channel.receive(buf) == null) {
+				return;
+			}
+			buf.flip();
+			int expected = buf.remaining() / MessageCodec.ENCODED_SIZE;
+			if (buf.remaining() % MessageCodec.ENCODED_SIZE != 0) {
+				expected++;
+			}
+			batch.clear();
+			malformed.addAndGet(expected - MessageCodec.decode(buf, batch));
+			for (int i = 0; i < batch.size(); i++) {
+				Message dropped = queue.offer(batch.get(i));
+				if (dropped != null) {
+					drop((SimulationMessage) dropped);
+				}
+			}
+		}
+	}
+
+	public String toString() {
+		return IPv4.toString(ipv4) + ":" + port + "/udp";
+	}
+
+	/**
+	 * The thread that receives for every port. Ports are registered through a
+	 * queue, since a channel cannot be registered while the selector is
+	 * blocked in another thread.
+	 */
+	private static class SelectorLoop implements Runnable {
+
+		private static SelectorLoop instance;
+
+		private final Selector selector;
+
+		private final ConcurrentLinkedQueue<UdpCommsPort> registrations = new ConcurrentLinkedQueue<>();
+
+		private final ByteBuffer buf = ByteBuffer.allocateDirect(65536);
+
+		private final List<SimulationMessage> batch = new ArrayList<>();
+
+		private SelectorLoop() throws IOException {
+			selector = Selector.open();
+			Thread t = new Thread(this, "ibr-udp");
+			t.setDaemon(true);
+			t.start();
+		}
+
+		static synchronized void register(UdpCommsPort cport) {
+			try {
+				if (instance == null) {
+					instance = new SelectorLoop();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open a selector", e);
+			}
+			instance.registrations.add(cport);
+			instance.selector.wakeup();
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					UdpCommsPort cport;
+					while ((cport = registrations.poll()) != null) {
+						cport.channel.register(selector, SelectionKey.OP_READ, cport);
+					}
+					selector.select();
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						if (key.isValid() && key.isReadable()) {
+							((UdpCommsPort) key.attachment()).receive(buf, batch);
+						}
+					}
+				} catch (IOException e) {
+					Trace.error(Trace.Category.HOST, "UDP receive failed: " + e);
+				}
+			}
+		}
+
+	}
+
+}
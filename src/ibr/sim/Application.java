@@ -1,169 +1,667 @@
-package ibr.sim;
-
-import java.net.InetSocketAddress;
-
-import ibr.core.CommsPort;
-import ibr.core.ComponentFactory;
-import ibr.core.Message;
-
-public class Application {
-
-	private CommsPort cport;
-
-	private Host host;
-
-	private String type;
-
-	private Thread clientThread;
-
-	private Thread receiverThread;
-
-	private float lambda;
-
-	private ApplicationConfigurationServer configServer;
-
-	public Application(Host host, String appType, ApplicationConfigurationServer configServer) {
-		this.host = host;
-		this.type = appType;
-		this.configServer = configServer;
-		if (configServer.isServer(type)) {
-			int port = configServer.getPort(type);
-			cport = ComponentFactory.createCommsPort(host.getAddr(), port);
-			receiverThread = new ServerThread(this);
-			clientThread = null;
-		} else {
-			cport = host.getEtherealPort();
-			Float oLambda = configServer.getLambda(type);
-			if (oLambda != null) {
-				lambda = oLambda;
-				clientThread = new ClientThread(this);
-			}
-			receiverThread = new ReceiverThread(this);
-		}
-		receiverThread.start();
-	}
-
-	public void begin() {
-		if (clientThread != null) {
-			System.out.println(this + " launching its client thread.");
-			clientThread.start();
-		} else {
-			System.out.println(this + " does not have a client thread.");
-		}
-	}
-
-	public Host getHost() {
-		return host;
-	}
-
-	public CommsPort getCommsPort() {
-		return cport;
-	}
-
-	private static class ServerThread extends Thread {
-
-		private Application app;
-
-		public ServerThread(Application application) {
-			this.app = application;
-		}
-
-		public void run() {
-			try {
-				while (Simulation.isRunning()) {
-					SimulationMessage msg = (SimulationMessage) app.cport.getNextMsg();
-					app.messageReceived(msg);
-					switch (msg.getType()) {
-					case ATTACK:
-					default:
-					}
-					SimulationMessage response = msg.createResponse();
-					app.cport.sendMsg(response);
-					app.messageSent(response);
-				}
-			} catch (InterruptedException e) {
-				Simulation.terminate();
-				return;
-			}
-		}
-	}
-
-	private static class ClientThread extends Thread {
-
-		private Application app;
-
-		public ClientThread(Application application) {
-			this.app = application;
-		}
-
-		public void run() {
-			System.out.println("Entered run() for " + this);
-			while (Simulation.isRunning()) {
-				InetSocketAddress dst = app.configServer.getDestinationAddress(app.type);
-				SimulationMessage msg = new SimulationMessage(SimulationMessage.Role.REQUEST,
-						SimulationMessage.Type.APPLICATION, app.host.getAddr(), dst.getAddress(), app.cport.getPort(), dst.getPort());
-				app.messageSent(msg);
-				app.cport.sendMsg(msg);
-				try {
-					/*
-					 * To calculate time-to-next-transaction for a given lambda:
-					 * 
-					 * <pre> x := rand(0..1) // x is a random float between 0
-					 * and 1 x = 1 - e^(-lt) // x is the cumulative probability
-					 * for some time t 1 - x = e^(-lt) // move the '1' to the
-					 * other side and flip signs ln(1-x) = -lt // natural log of
-					 * both sides t = -ln(1-x)/l // the equation for t, time to
-					 * next transaction </pre>
-					 */
-					float x = Simulation.getRandom().nextFloat();
-					float t = -(float) (Math.log(x) / app.lambda);
-					int sleepTime_ms = (int) (t * 1000);
-					Thread.sleep(sleepTime_ms);
-				} catch (InterruptedException e) {
-					Simulation.terminate();
-					return;
-				}
-			}
-		}
-
-	}
-
-	private static class ReceiverThread extends Thread {
-
-		private Application app;
-
-		public ReceiverThread(Application application) {
-			this.app = application;
-		}
-
-		public void run() {
-			try {
-				while (Simulation.isRunning()) {
-					SimulationMessage msg = (SimulationMessage) app.cport.getNextMsg();
-					app.messageReceived(msg);
-					switch (msg.getType()) {
-					case ATTACK:
-					default:
-					}
-				}
-			} catch (InterruptedException e) {
-				Simulation.terminate();
-				return;
-			}
-		}
-
-	}
-
-	public void messageReceived(Message msg) {
-		System.out.println(Simulation.getElapsedSeconds() + ": " + this + " << " + msg);
-	}
-
-	public void messageSent(SimulationMessage msg) {
-		System.out.println(Simulation.getElapsedSeconds() + ": " + this + " >> " + msg);
-	}
-
-	public String toString() {
-		return type + "(" + cport + ")";
-	}
-
-}
+package ibr.sim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import ibr.core.CommsPort;
+import ibr.core.ComponentFactory;
+import ibr.core.Message;
+import ibr.net.UdpCommsPort;
+
+public class Application {
+
+	private CommsPort cport;
+
+	private Host host;
+
+	private String type;
+
+	private boolean server;
+
+	private Runnable clientLoop;
+
+	private Runnable receiverLoop;
+
+	private float lambda;
+
+	private int dstPort;
+
+	/**
+	 * For an attack flow, how its intensity varies over time; null for an
+	 * ordinary application.
+	 */
+	private AttackPattern attackPattern;
+
+	/**
+	 * For a client on a corrupted host, the probability that a transaction is
+	 * an attack.
+	 */
+	private float pAttack;
+
+	private long requestsSent;
+
+	private long attacksSent;
+
+	private long responsesReceived;
+
+	/**
+	 * The counters shared by every application of this type.
+	 */
+	private Metrics.Counters metrics;
+
+	/**
+	 * The requests that this client has sent and that have not yet been
+	 * answered or timed out, from which the round trip time of a response is
+	 * found. Allocated by the first request, since most applications send
+	 * none. In real-time mode the client loop sends, the receiver loop
+	 * receives and the timer thread times out, so the table is locked.
+	 */
+	private OutstandingRequests outstanding;
+
+	/**
+	 * How long a request waits for its response, and how many times it is
+	 * sent again when it goes unanswered.
+	 */
+	private long timeoutNanos;
+
+	private int retries;
+
+	/**
+	 * The IDs of requests sent again, used only by the thread on which
+	 * timeouts expire.
+	 */
+	private IdAllocator.IdBlock retryIds;
+
+	/**
+	 * The IDs for the messages this application sends. Only one thread sends
+	 * on behalf of an application: its client loop or its server loop.
+	 */
+	private IdAllocator.IdBlock ids;
+
+	/**
+	 * This application's own random stream, drawn on by the thread that sends
+	 * for it.
+	 */
+	private SplittableRandom random;
+
+	private ApplicationConfigurationServer configServer;
+
+	/**
+	 * The most messages handled, and responses sent, as one batch.
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	/**
+	 * The batch being handled and its responses, used only by the thread that
+	 * receives for this application.
+	 */
+	private final List<Message> received = new ArrayList<>(BATCH_SIZE);
+
+	private final List<SimulationMessage> responses = new ArrayList<>(BATCH_SIZE);
+
+	/**
+	 * For a server with a service-time model, the distribution of the
+	 * seconds it takes to serve one message, and the number of messages it
+	 * serves at once; messages that find every worker busy wait in the port's
+	 * queue. Null for a server that answers at once.
+	 */
+	private Distribution serviceTime;
+
+	private int workers;
+
+	/**
+	 * In discrete-event mode, the number of workers serving a message, and
+	 * the completion events of those that are not.
+	 */
+	private int busyWorkers;
+
+	private ArrayDeque<ServiceEvent> idleWorkers;
+
+	public Application(Host host, String appType, ApplicationConfigurationServer configServer) {
+		this.host = host;
+		this.type = appType;
+		this.configServer = configServer;
+		this.server = configServer.isServer(type);
+		this.ids = host.getIdAllocator().newBlock();
+		this.random = host.splitRandom();
+		this.metrics = Metrics.forType(type);
+		if (server) {
+			int port = configServer.getPort(type);
+			cport = ComponentFactory.createCommsPort(host.getAddr(), port);
+			serviceTime = configServer.getServiceTime(type);
+			if (serviceTime != null) {
+				workers = configServer.getWorkers(type);
+				metrics.addWorkers(workers);
+			}
+		} else {
+			cport = host.getEtherealPort();
+			timeoutNanos = (long) (configServer.getTimeout(type) * 1.0e9);
+			retries = configServer.getRetries(type);
+			Float oLambda = configServer.getLambda(type);
+			if (oLambda != null) {
+				lambda = oLambda;
+			}
+			dstPort = configServer.getDestinationPort(type);
+			if (configServer.isAttackType(type)) {
+				attackPattern = configServer.getAttackPattern(type);
+			} else {
+				pAttack = configServer.getAttackProbability(host.getAddr());
+			}
+		}
+		if (cport instanceof SimCommsPort) {
+			((SimCommsPort) cport).setQueue(configServer.createQueue(type, host.splitRandom()));
+		} else if (cport instanceof UdpCommsPort) {
+			((UdpCommsPort) cport).setQueue(configServer.createQueue(type, host.splitRandom()));
+		}
+		if (Simulation.isDiscreteEvent()) {
+			((SimCommsPort) cport).setListener(this);
+			if (serviceTime != null) {
+				idleWorkers = new ArrayDeque<>();
+			}
+			return;
+		}
+		if (server && serviceTime != null) {
+			for (int i = 0; i < workers; i++) {
+				Simulation.execute(new WorkerLoop(this));
+			}
+			return;
+		}
+		if (server) {
+			receiverLoop = new ServerLoop(this);
+		} else {
+			if (lambda > 0) {
+				clientLoop = new ClientLoop(this);
+			}
+			receiverLoop = new ReceiverLoop(this);
+		}
+		Simulation.execute(receiverLoop);
+	}
+
+	public void begin() {
+		if (Simulation.isDiscreteEvent()) {
+			if (!server && lambda > 0) {
+				Trace.debug(Trace.Category.HOST, this + " scheduling its first transaction.");
+				Simulation.schedule(new ArrivalEvent(this), nextInterarrivalNanos());
+			} else {
+				Trace.debug(Trace.Category.HOST, this + " does not generate transactions.");
+			}
+			return;
+		}
+		if (clientLoop != null) {
+			Trace.debug(Trace.Category.HOST, this + " launching its client loop.");
+			Simulation.execute(clientLoop);
+		} else {
+			Trace.debug(Trace.Category.HOST, this + " does not have a client loop.");
+		}
+	}
+
+	/**
+	 * @return the number of messages this server serves at once, or 0 if it
+	 *         answers at once
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public Host getHost() {
+		return host;
+	}
+
+	public CommsPort getCommsPort() {
+		return cport;
+	}
+
+	/**
+	 * Send one request to a destination chosen by the configuration server.
+	 */
+	private void transact() {
+		int dst = configServer.getDestinationIPv4(type, random);
+		if (dst == 0) {
+			Trace.error(Trace.Category.HOST, this + " has no destination to send to.");
+			return;
+		}
+		SimulationMessage.Type msgType = SimulationMessage.Type.APPLICATION;
+		if (attackPattern != null) {
+			// Thin the arrivals, drawn at the peak rate, to the current intensity
+			if (random.nextDouble() >= attackPattern.intensity(Simulation.getElapsedNanos() / 1.0e9)) {
+				return;
+			}
+			msgType = SimulationMessage.Type.ATTACK;
+		} else if (pAttack > 0 && random.nextDouble() < pAttack) {
+			msgType = SimulationMessage.Type.ATTACK;
+		}
+		if (msgType == SimulationMessage.Type.ATTACK) {
+			attacksSent++;
+		} else {
+			requestsSent++;
+		}
+		SimulationMessage msg = SimulationMessage.obtain(ids.nextId(), SimulationMessage.Role.REQUEST, msgType,
+				host.getIPv4(), dst, cport.getPort(), dstPort);
+		msg.setPackets(configServer.getRequestSize(type, random));
+		messageSent(msg);
+		if (msgType == SimulationMessage.Type.APPLICATION) {
+			// Attacks go unanswered, so they are not waited for
+			long now = Simulation.getElapsedNanos();
+			Request r = new Request(this);
+			r.dst = dst;
+			r.packets = msg.getPackets();
+			r.firstSent = now;
+			requestSent(r, msg.getId(), now);
+		}
+		cport.sendMsg(msg);
+	}
+
+	/**
+	 * To calculate time-to-next-transaction for a given lambda:
+	 *
+	 * <pre>
+	 * x := rand(0..1)   // x is a random float between 0 and 1
+	 * x = 1 - e^(-lt)   // x is the cumulative probability for some time t
+	 * 1 - x = e^(-lt)   // move the '1' to the other side and flip signs
+	 * ln(1-x) = -lt     // natural log of both sides
+	 * t = -ln(1-x)/l    // the equation for t, time to next transaction
+	 * </pre>
+	 *
+	 * @return the time to the next transaction, in nanoseconds
+	 */
+	private long nextInterarrivalNanos() {
+		double x = random.nextDouble();
+		double t = -Math.log(1 - x) / lambda;
+		return (long) (t * 1.0e9);
+	}
+
+	/**
+	 * Handle the messages in <code>received</code>, and send their responses
+	 * as one batch.
+	 */
+	private void handleBatch() {
+		for (int i = 0; i < received.size(); i++) {
+			SimulationMessage response = handle((SimulationMessage) received.get(i), ids, random);
+			if (response != null) {
+				responses.add(response);
+			}
+		}
+		received.clear();
+		if (!responses.isEmpty()) {
+			cport.sendMsgs(responses);
+			responses.clear();
+		}
+	}
+
+	/**
+	 * Wait for a message, then take it and any others already waiting, up to
+	 * a batch, and handle them.
+	 */
+	private void receiveBatch() throws InterruptedException {
+		received.add(cport.getNextMsg());
+		cport.drainTo(received, BATCH_SIZE - 1);
+		handleBatch();
+	}
+
+	/**
+	 * Handle a message that has arrived on this application's port.
+	 *
+	 * @param ids
+	 *            the IDs of the calling thread
+	 * @param random
+	 *            the random stream of the calling thread
+	 * @return the response to send, or null if there is none
+	 */
+	private SimulationMessage handle(SimulationMessage msg, IdAllocator.IdBlock ids, SplittableRandom random) {
+		messageReceived(msg);
+		switch (msg.getType()) {
+		case ATTACK:
+			host.feedback(msg.getSrcIPv4(), false);
+			break;
+		case APPLICATION:
+			host.feedback(msg.getSrcIPv4(), true);
+			if (msg.getRole() == SimulationMessage.Role.RESPONSE) {
+				responsesReceived++;
+				long sent = responseReceived(msg.getInResponseTo());
+				if (sent >= 0) {
+					metrics.roundTrip(Simulation.getElapsedNanos() - sent);
+				} else {
+					metrics.late();
+				}
+			}
+			break;
+		default:
+		}
+		SimulationMessage response = null;
+		if (server && msg.getType() == SimulationMessage.Type.APPLICATION) {
+			// Attacks go unanswered; their cost is in the resources they take
+			response = msg.createResponse(ids.nextId());
+			response.setPackets(configServer.getResponseSize(type, random));
+			messageSent(response);
+		}
+		msg.recycle();
+		return response;
+	}
+
+	/**
+	 * Wait for the response to a request that is being sent.
+	 */
+	private synchronized void requestSent(Request r, long id, long now) {
+		if (outstanding == null) {
+			outstanding = new OutstandingRequests();
+		}
+		r.id = id;
+		r.sent = now;
+		r.attempts++;
+		outstanding.put(r);
+		Simulation.getTimerWheel().schedule(r, now + timeoutNanos);
+	}
+
+	/**
+	 * @return when the request with the given ID was sent, or -1 if it is not
+	 *         outstanding: it was never sent, or it has timed out
+	 */
+	private synchronized long responseReceived(long id) {
+		if (id == 0 || outstanding == null) {
+			return -1;
+		}
+		OutstandingRequests.Request r = outstanding.remove(id);
+		if (r == null) {
+			return -1;
+		}
+		Simulation.getTimerWheel().cancel(r);
+		return r.sent;
+	}
+
+	/**
+	 * A request has gone unanswered for the timeout; send it again, with a
+	 * new ID, or give up on it.
+	 */
+	private void timedOut(Request r) {
+		synchronized (this) {
+			if (outstanding.get(r.id) != r) {
+				// Answered as it expired
+				return;
+			}
+			outstanding.remove(r.id);
+		}
+		metrics.timedOut();
+		if (r.attempts > retries) {
+			metrics.failed();
+			return;
+		}
+		metrics.retried();
+		if (retryIds == null) {
+			retryIds = host.getIdAllocator().newBlock();
+		}
+		SimulationMessage msg = SimulationMessage.obtain(retryIds.nextId(), SimulationMessage.Role.REQUEST,
+				SimulationMessage.Type.APPLICATION, host.getIPv4(), r.dst, cport.getPort(), dstPort);
+		msg.setPackets(r.packets);
+		messageSent(msg);
+		requestSent(r, msg.getId(), Simulation.getElapsedNanos());
+		cport.sendMsg(msg);
+	}
+
+	/**
+	 * @return the number of requests waiting for their responses
+	 */
+	public synchronized int getOutstandingCount() {
+		return outstanding == null ? 0 : outstanding.size();
+	}
+
+	/**
+	 * A worker takes a message from the queue.
+	 *
+	 * @return the time, in nanoseconds, that the worker will spend on it
+	 */
+	private long startService(SimulationMessage msg, SplittableRandom random) {
+		metrics.waited(Math.max(0, Simulation.getElapsedNanos() - msg.getTime()));
+		return (long) (serviceTime.sample(random) * 1.0e9);
+	}
+
+	/**
+	 * A worker has finished with a message; answer it.
+	 */
+	private void finishService(SimulationMessage msg, long serviceNanos, IdAllocator.IdBlock ids,
+			SplittableRandom random) {
+		metrics.served(serviceNanos);
+		SimulationMessage response = handle(msg, ids, random);
+		if (response != null) {
+			cport.sendMsg(response);
+		}
+	}
+
+	/**
+	 * In discrete-event mode, set idle workers to serve the messages waiting
+	 * in the queue.
+	 */
+	private void serveWaiting() {
+		while (busyWorkers < workers) {
+			SimulationMessage msg = (SimulationMessage) cport.pollNextMsg();
+			if (msg == null) {
+				return;
+			}
+			busyWorkers++;
+			ServiceEvent e = idleWorkers.poll();
+			if (e == null) {
+				e = new ServiceEvent(this);
+			}
+			e.msg = msg;
+			e.serviceNanos = startService(msg, random);
+			Simulation.schedule(e, e.serviceNanos);
+		}
+	}
+
+	/**
+	 * Called by the port, in discrete-event mode, when messages have been
+	 * delivered to it.
+	 */
+	void messagesAvailable() {
+		if (serviceTime != null) {
+			serveWaiting();
+			return;
+		}
+		while (cport.drainTo(received, BATCH_SIZE) > 0) {
+			handleBatch();
+		}
+	}
+
+	/**
+	 * In discrete-event mode, the arrival of the next transaction of a traffic
+	 * generator.
+	 */
+	private static class ArrivalEvent extends Event {
+
+		private Application app;
+
+		public ArrivalEvent(Application application) {
+			this.app = application;
+		}
+
+		@Override
+		public void fire() {
+			app.transact();
+			Simulation.schedule(this, app.nextInterarrivalNanos());
+		}
+
+	}
+
+	/**
+	 * A request waiting for its response.
+	 */
+	private static class Request extends OutstandingRequests.Request {
+
+		private final Application app;
+
+		public Request(Application application) {
+			this.app = application;
+		}
+
+		@Override
+		protected void expire() {
+			app.timedOut(this);
+		}
+
+	}
+
+	/**
+	 * In discrete-event mode, the end of a worker's service of a message.
+	 */
+	private static class ServiceEvent extends Event {
+
+		private final Application app;
+
+		private SimulationMessage msg;
+
+		private long serviceNanos;
+
+		public ServiceEvent(Application application) {
+			this.app = application;
+		}
+
+		@Override
+		public void fire() {
+			SimulationMessage m = msg;
+			msg = null;
+			app.busyWorkers--;
+			app.idleWorkers.push(this);
+			app.finishService(m, serviceNanos, app.ids, app.random);
+			app.serveWaiting();
+		}
+
+	}
+
+	/**
+	 * In real-time mode, one of a server's workers. Each worker has its own
+	 * IDs and random stream, since the workers answer messages concurrently.
+	 */
+	private static class WorkerLoop implements Runnable {
+
+		private Application app;
+
+		private IdAllocator.IdBlock ids;
+
+		private SplittableRandom random;
+
+		public WorkerLoop(Application application) {
+			this.app = application;
+			this.ids = application.host.getIdAllocator().newBlock();
+			this.random = application.host.splitRandom();
+		}
+
+		public void run() {
+			try {
+				while (Simulation.isRunning()) {
+					SimulationMessage msg = (SimulationMessage) app.cport.getNextMsg();
+					long service = app.startService(msg, random);
+					Thread.sleep(service / 1000000L, (int) (service % 1000000L));
+					app.finishService(msg, service, ids, random);
+				}
+			} catch (InterruptedException e) {
+				Simulation.terminate();
+				return;
+			}
+		}
+	}
+
+	private static class ServerLoop implements Runnable {
+
+		private Application app;
+
+		public ServerLoop(Application application) {
+			this.app = application;
+		}
+
+		public void run() {
+			try {
+				while (Simulation.isRunning()) {
+					app.receiveBatch();
+				}
+			} catch (InterruptedException e) {
+				Simulation.terminate();
+				return;
+			}
+		}
+	}
+
+	private static class ClientLoop implements Runnable {
+
+		private Application app;
+
+		public ClientLoop(Application application) {
+			this.app = application;
+		}
+
+		public void run() {
+			while (Simulation.isRunning()) {
+				app.transact();
+				try {
+					Thread.sleep(app.nextInterarrivalNanos() / 1000000L);
+				} catch (InterruptedException e) {
+					Simulation.terminate();
+					return;
+				}
+			}
+		}
+
+	}
+
+	private static class ReceiverLoop implements Runnable {
+
+		private Application app;
+
+		public ReceiverLoop(Application application) {
+			this.app = application;
+		}
+
+		public void run() {
+			try {
+				while (Simulation.isRunning()) {
+					app.receiveBatch();
+				}
+			} catch (InterruptedException e) {
+				Simulation.terminate();
+				return;
+			}
+		}
+
+	}
+
+	public boolean isAttack() {
+		return attackPattern != null;
+	}
+
+	/**
+	 * @return the number of legitimate requests this application has sent
+	 */
+	public long getRequestsSent() {
+		return requestsSent;
+	}
+
+	/**
+	 * @return the number of attack messages this application has sent
+	 */
+	public long getAttacksSent() {
+		return attacksSent;
+	}
+
+	public long getResponsesReceived() {
+		return responsesReceived;
+	}
+
+	public void messageReceived(Message msg) {
+		metrics.received(((SimulationMessage) msg).getPackets());
+		Trace.message(Trace.Kind.RECEIVE, host.getIPv4(), cport.getPort(), (SimulationMessage) msg);
+	}
+
+	public void messageSent(SimulationMessage msg) {
+		metrics.sent(msg.getPackets());
+		Trace.message(Trace.Kind.SEND, host.getIPv4(), cport.getPort(), msg);
+	}
+
+	public String toString() {
+		return type + "(" + cport + ")";
+	}
+
+}
@@ -1,285 +1,1168 @@
-package ibr.sim;
-
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.Properties;
-import java.util.Set;
-
-/**
- * Read the application configuration from a file; set up hosts with their
- * applications.
- * 
- * @author glfrazier
- *
- */
-public class ApplicationConfigurationServer {
-
-	private Set<InetAddress> hosts = new HashSet<>();;
-
-	private Set<String> applicationNames = new HashSet<>();
-
-	private Set<String> attackTypes = new HashSet<>();
-
-	private Map<InetAddress, String[]> hostToAppsMap = new HashMap<>();
-
-	private Map<String, Integer> serverPort = new HashMap<>();
-
-	/**
-	 * Map the transaction rate to the type of host. The rate is expressed as
-	 * lambda (l), were
-	 * 
-	 * <pre>
-	 * PDF(time-to-next-transaction) = (1/l)e^(-lt)
-	 * </pre>
-	 * 
-	 * and
-	 * 
-	 * <pre>
-	 * CDF = 1 - e ^ (-lt)
-	 * </pre>
-	 * 
-	 * To calculate time-to-next-transaction for a given lambda:
-	 * 
-	 * <pre>
-	 * x := rand(0..1)    // x is a random float between 0 and 1
-	 * x = 1 - e^(-lt)  // x is the cumulative probability for some time t
-	 * 1 - x = e^(-lt)   // move the '1' to the other side and flip signs
-	 * ln(1-x) = -lt     // natural log of both sides
-	 * t = -ln(1-x)/l    // the equation for t, time to next transaction
-	 * </pre>
-	 */
-	private Map<String, Float> transactionRateLambda = new HashMap<>();
-
-	/**
-	 * If a host is an attacker, it is an attacker of a named type.
-	 */
-	private Map<InetAddress, String> attackTypeByHost = new HashMap<>();
-
-	/**
-	 * A given type of attack has a pattern of attack. For now, we will
-	 * characterize this as a rate.
-	 */
-	private Map<String, Float> attackRate = new HashMap<>();
-
-	private Map<String, String> destinations = new HashMap<>();
-
-	public ApplicationConfigurationServer(String configfile) throws IOException, UnknownHostException {
-		InputStream in = new FileInputStream(configfile);
-		Properties props = new Properties();
-		props.load(in);
-		initialize(props);
-	}
-
-	private synchronized void initialize(Properties props) throws UnknownHostException {
-		System.out.println("Initializing the simulation.");
-		String hostRegEx = props.getProperty("hosts");
-		if (hostRegEx == null) {
-			System.err.println("You failed to specify a 'hosts' property.");
-			System.exit(-1);
-		}
-		System.out.println("The host specification: " + hostRegEx);
-		String[] hostRegExes = hostRegEx.split(",");
-		for (String regEx : hostRegExes) {
-			String[] quad = regEx.split("\\.");
-			for (String a : quadExpand(quad[0])) {
-				for (String b : quadExpand(quad[1])) {
-					for (String c : quadExpand(quad[2])) {
-						for (String d : quadExpand(quad[3])) {
-							InetAddress addr = InetAddress.getByName(a + "." + b + "." + c + "." + d);
-							System.out.println("Adding " + addr + " to hosts.");
-							hosts.add(addr);
-						}
-					}
-				}
-			}
-		}
-		for (InetAddress hostAddr : hosts) {
-			String ip = Host.ipstrip(hostAddr.toString());
-			System.out.println("Searching for the type(s) for " + ip + ".");
-			String apps = props.getProperty(ip);
-			System.out.println("Apps for " + ip + ": " + apps);
-			if (apps != null) {
-				String[] appArray = apps.split(",");
-				hostToAppsMap.put(hostAddr, appArray);
-				for (String type : appArray) {
-					applicationNames.add(type);
-				}
-			}
-		}
-		for (String type : attackTypes) {
-			if (props.containsKey(type + ".pAttack")) {
-				try {
-					float rate = Float.parseFloat(props.getProperty(type + ".pAttack"));
-					attackRate.put(type, rate);
-				} catch (Exception e) {
-					// TODO log this error
-					e.printStackTrace();
-					System.err.println("Failure to parse property " + type + ".pAttack");
-				}
-			}
-		}
-		for (String appName : applicationNames) {
-			applicationNames.add(appName);
-			if (props.containsKey(appName + ".port")) {
-				try {
-					int port = Integer.parseInt(props.getProperty(appName + ".port"));
-					System.out.println("Application " + appName + " listens to port " + port + ".");
-					serverPort.put(appName, port);
-				} catch (Exception e) {
-					// TODO log this error
-					e.printStackTrace();
-					System.err.println("Failure to parse property " + appName + ".port");
-				}
-			}
-			if (props.containsKey(appName + ".lambda")) {
-				try {
-					float lambda = Float.parseFloat(props.getProperty(appName + ".lambda"));
-					System.out.println("Application " + appName + " transmits with lambda = " + lambda + ".");
-					transactionRateLambda.put(appName, lambda);
-				} catch (Exception e) {
-					// TODO log this error
-					e.printStackTrace();
-					System.err.println("Failure to parse property " + appName + ".lambda");
-				}
-			} else {
-				System.out.println("Application " + appName + " does not transmit.");
-			}
-			if (props.containsKey(appName + ".dsttype")) {
-				destinations.put(appName, props.getProperty(appName + ".dsttype"));
-				System.out.println(appName + " ==> " + destinations.get(appName));
-			}
-		}
-	}
-
-	private static String[] quadExpand(String quad) {
-		if (quad.matches("\\d+")) {
-			String[] result = new String[1];
-			result[0] = quad;
-			return result;
-		}
-		String[] limits = quad.split("-");
-		int lower = Integer.parseInt(limits[0]);
-		int upper = Integer.parseInt(limits[1]);
-		String[] result = new String[upper - lower];
-		for (int i = lower; i < upper; i++) {
-			result[i - lower] = Integer.toString(i);
-		}
-		return result;
-	}
-
-	public boolean isServer(String name) {
-		return serverPort.containsKey(name);
-	}
-
-	public boolean isServer(String[] names) {
-		if (names == null)
-			return false;
-		for (String name : names) {
-			if (isServer(name))
-				return true;
-		}
-		return false;
-	}
-
-	public boolean isServer(InetAddress host) {
-		return isServer(hostToAppsMap.get(host));
-	}
-
-	public boolean isTrafficGenerator(String name) {
-		return transactionRateLambda.containsKey(name) && transactionRateLambda.get(name) > 0.0;
-	}
-
-	public boolean isTrafficGenerator(String[] names) {
-		if (names == null)
-			return false;
-		for (String name : names) {
-			if (isTrafficGenerator(name))
-				return true;
-		}
-		return false;
-	}
-
-	public boolean isTrafficGenerator(InetAddress host) {
-		return isTrafficGenerator(hostToAppsMap.get(host));
-	}
-
-	public synchronized float getAttackProbability(InetAddress host) {
-		return attackTypeByHost.containsKey(host) ? attackRate.get(attackTypeByHost.get(host)) : 0.0f;
-	}
-
-	public synchronized void wasCorruptedBy(InetAddress host, String attackType) {
-		assert (attackRate.containsKey(attackType));
-		attackTypeByHost.put(host, attackType);
-	}
-
-	/**
-	 * For a named traffic generator, get the number of messages (packets) to
-	 * use in a request.
-	 * 
-	 * @param name
-	 *            the name of the application
-	 * @return number of packets, >= 1
-	 */
-	public int getRequestSize(String name) {
-		return 1;
-	}
-
-	public int getResponseSize(String name) {
-		return 1;
-	}
-
-	public String[] getApplicationTypes(InetAddress addr) {
-		String[] result = hostToAppsMap.get(addr);
-		if (result == null)
-			return new String[0];
-		return result;
-	}
-
-	public int getPort(String appType) {
-		if (appType == null) {
-			throw new IllegalArgumentException("type == null");
-		}
-		if (!serverPort.containsKey(appType)) {
-			return -1;
-		}
-		return serverPort.get(appType);
-	}
-
-	public Float getLambda(String type) {
-		return transactionRateLambda.get(type);
-	}
-
-	public Set<InetAddress> getHostAddrs() {
-		return hosts;
-	}
-
-	public InetSocketAddress getDestinationAddress(String type) {
-		if (type == null) {
-			throw new IllegalArgumentException("type == null");
-		}
-		String dstType = destinations.get(type);
-		int port = getPort(dstType);
-		List<InetSocketAddress> dsts = new LinkedList<>();
-		for (InetAddress addr : hosts) {
-			String[] types = hostToAppsMap.get(addr);
-			for (String t : types) {
-				if (t.equals(dstType)) {
-					dsts.add(new InetSocketAddress(addr, port));
-					break;
-				}
-			}
-		}
-		int i = Simulation.getRandom().nextInt(dsts.size());
-		return dsts.get(i);
-	}
-
-}
+package ibr.sim;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import ibr.core.ComponentFactory;
+import ibr.core.IPv4;
+import ibr.core.UnsendableQueue;
+
+/**
+ * Read the application configuration from a file; set up hosts with their
+ * applications.
+ * 
+ * @author glfrazier
+ *
+ */
+public class ApplicationConfigurationServer {
+
+	/**
+	 * The hosts, each tagged with the index in {@link #appSets} of the
+	 * application types that run on it.
+	 */
+	private HostSet hosts = new HostSet();
+
+	/**
+	 * The distinct sets of application types assigned to hosts; entry 0 is
+	 * the empty set.
+	 */
+	private List<String[]> appSets = new ArrayList<>();
+
+	private Set<String> applicationNames = new HashSet<>();
+
+	private Set<String> attackTypes = new HashSet<>();
+
+	private Map<String, Integer> serverPort = new HashMap<>();
+
+	/**
+	 * Map the transaction rate to the type of host. The rate is expressed as
+	 * lambda (l), were
+	 * 
+	 * <pre>
+	 * PDF(time-to-next-transaction) = (1/l)e^(-lt)
+	 * </pre>
+	 * 
+	 * and
+	 * 
+	 * <pre>
+	 * CDF = 1 - e ^ (-lt)
+	 * </pre>
+	 * 
+	 * To calculate time-to-next-transaction for a given lambda:
+	 * 
+	 * <pre>
+	 * x := rand(0..1)    // x is a random float between 0 and 1
+	 * x = 1 - e^(-lt)  // x is the cumulative probability for some time t
+	 * 1 - x = e^(-lt)   // move the '1' to the other side and flip signs
+	 * ln(1-x) = -lt     // natural log of both sides
+	 * t = -ln(1-x)/l    // the equation for t, time to next transaction
+	 * </pre>
+	 */
+	private Map<String, Float> transactionRateLambda = new HashMap<>();
+
+	/**
+	 * If a host is an attacker, it is an attacker of a named type.
+	 */
+	private Map<InetAddress, String> attackTypeByHost = new HashMap<>();
+
+	/**
+	 * A given type of attack has a pattern of attack. For now, we will
+	 * characterize this as a rate.
+	 */
+	private Map<String, Float> attackRate = new HashMap<>();
+
+	/**
+	 * How the intensity of each type of attack flow varies over time.
+	 */
+	private Map<String, AttackPattern> attackPatterns = new HashMap<>();
+
+	/**
+	 * The sizes, in packets, of the requests and responses of each type that
+	 * has them configured; any other type's messages are one packet.
+	 */
+	private Map<String, Distribution> requestSizes = new HashMap<>();
+
+	private Map<String, Distribution> responseSizes = new HashMap<>();
+
+	/**
+	 * For each server type with a service-time model, the seconds to serve a
+	 * message, and the number of messages each server serves at once.
+	 */
+	private Map<String, Distribution> serviceTimes = new HashMap<>();
+
+	private Map<String, Integer> workers = new HashMap<>();
+
+	/**
+	 * For each client type, the seconds to wait for the response to a
+	 * request, and the number of times to send a request again when it goes
+	 * unanswered.
+	 */
+	private Map<String, Double> timeouts = new HashMap<>();
+
+	private Map<String, Integer> retries = new HashMap<>();
+
+	private Map<String, String> destinations = new HashMap<>();
+
+	/**
+	 * Map each application type to the packed addresses of the servers of that
+	 * type. Built whenever the hosts or their applications change, so that
+	 * choosing a destination does not have to search the hosts. The map and
+	 * its arrays are never modified once published.
+	 */
+	private volatile Map<String, int[]> destinationIndex = new HashMap<>();
+
+	private Simulation.Mode simulationMode = Simulation.Mode.DISCRETE;
+
+	/**
+	 * Whether applications exchange messages through the simulator or over
+	 * real sockets.
+	 */
+	private ComponentFactory.Context context = ComponentFactory.Context.SIMULATION;
+
+	/**
+	 * The simulated time, in seconds, to run a discrete-event simulation.
+	 */
+	private double duration = 3600.0;
+
+	private Simulation.Threads threads = Simulation.Threads.PLATFORM;
+
+	private long threadStackSize = 0;
+
+	private int messagePoolCapacity = 0;
+
+	/**
+	 * The number of partitions, each with its own thread, among which the
+	 * hosts of a discrete-event simulation are divided.
+	 */
+	private int partitions = 1;
+
+	/**
+	 * The interval, in nanoseconds, at which request timeouts are checked.
+	 */
+	private long timerTickNanos = TimerWheel.DEFAULT_TICK_NANOS;
+
+	private Long seed;
+
+	/**
+	 * The queue settings for each application type, parsed when the first
+	 * queue for that type is created.
+	 */
+	private Map<String, QueueSpec> queueSpecs = new HashMap<>();
+
+	private Properties props;
+
+	private Host.TunnelPolicy tunnelPolicy = Host.TunnelPolicy.OPEN;
+
+	/**
+	 * Seconds after which an unused tunnel is torn down; 0 if tunnels never
+	 * expire.
+	 */
+	private double tunnelIdleTimeout = 0;
+
+	/**
+	 * The packed address of the host that introduces hosts to one another,
+	 * or 0 if there is none.
+	 */
+	private int introducer;
+
+	private int introductionCacheSize = 1024;
+
+	private double introductionCacheTTL = 300.0;
+
+	private double introductionTimeout = 5.0;
+
+	/**
+	 * The most messages that a host holds for a destination while it waits
+	 * for an introduction, and the seconds for which it holds them.
+	 */
+	private int pendingCapacity = UnsendableQueue.DEFAULT_CAPACITY;
+
+	private double pendingTimeout = UnsendableQueue.DEFAULT_TIMEOUT_NANOS / 1.0e9;
+
+	/**
+	 * The seconds in which feedback about a peer loses half its weight, and
+	 * the decayed count of attacks from a peer at which it is distrusted.
+	 */
+	private double reputationHalfLife = 60.0;
+
+	private double reputationThreshold = 5.0;
+
+	public ApplicationConfigurationServer(String configfile) throws IOException, UnknownHostException {
+		InputStream in = new FileInputStream(configfile);
+		Properties props = new Properties();
+		props.load(in);
+		initialize(props);
+	}
+
+	/**
+	 * Configure the simulation from properties that have already been loaded,
+	 * such as a topology generated by a benchmark.
+	 */
+	public ApplicationConfigurationServer(Properties props) throws IOException {
+		initialize(props);
+	}
+
+	private synchronized void initialize(Properties props) throws IOException {
+		this.props = props;
+		Trace.configure(props);
+		Metrics.configure(props);
+		Trace.info(Trace.Category.CONFIG, "Initializing the simulation.");
+		String hostRegEx = props.getProperty("hosts");
+		if (hostRegEx == null) {
+			Trace.error(Trace.Category.CONFIG, "You failed to specify a 'hosts' property.");
+			Trace.close();
+			System.exit(-1);
+		}
+		if (props.containsKey("simulation.mode")) {
+			try {
+				simulationMode = Simulation.Mode.valueOf(props.getProperty("simulation.mode").trim().toUpperCase());
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property simulation.mode: " + e);
+			}
+		}
+		Trace.info(Trace.Category.CONFIG, "Simulation mode: " + simulationMode);
+		if (props.containsKey("simulation.context")) {
+			try {
+				context = ComponentFactory.Context
+						.valueOf(props.getProperty("simulation.context").trim().toUpperCase(Locale.ROOT));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property simulation.context: " + e);
+			}
+			if (context != ComponentFactory.Context.SIMULATION && simulationMode == Simulation.Mode.DISCRETE) {
+				Trace.error(Trace.Category.CONFIG, "simulation.context " + context
+						+ " requires realtime mode; using simulation.");
+				context = ComponentFactory.Context.SIMULATION;
+			}
+		}
+		if (props.containsKey("simulation.duration")) {
+			try {
+				duration = Double.parseDouble(props.getProperty("simulation.duration"));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property simulation.duration: " + e);
+			}
+		}
+		if (props.containsKey("simulation.threads")) {
+			try {
+				threads = Simulation.Threads.valueOf(props.getProperty("simulation.threads").trim().toUpperCase());
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property simulation.threads: " + e);
+			}
+		}
+		if (props.containsKey("simulation.stackSize")) {
+			try {
+				threadStackSize = Long.parseLong(props.getProperty("simulation.stackSize"));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property simulation.stackSize: " + e);
+			}
+		}
+		if (props.containsKey("simulation.messagePool")) {
+			try {
+				messagePoolCapacity = Integer.parseInt(props.getProperty("simulation.messagePool"));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property simulation.messagePool: " + e);
+			}
+		}
+		if (props.containsKey("simulation.partitions")) {
+			try {
+				partitions = Math.max(1, Integer.parseInt(props.getProperty("simulation.partitions").trim()));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property simulation.partitions: " + e);
+			}
+		}
+		if (props.containsKey("simulation.timerTick")) {
+			try {
+				double tick = Double.parseDouble(props.getProperty("simulation.timerTick").trim());
+				if (!(tick > 0)) {
+					throw new IllegalArgumentException("simulation.timerTick <= 0");
+				}
+				timerTickNanos = Math.max(1, (long) (tick * 1.0e9));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property simulation.timerTick: " + e);
+			}
+		}
+		if (props.containsKey("simulation.seed")) {
+			try {
+				seed = Long.parseLong(props.getProperty("simulation.seed").trim());
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property simulation.seed: " + e);
+			}
+		}
+		if (props.containsKey("tunnel.policy")) {
+			try {
+				tunnelPolicy = Host.TunnelPolicy.valueOf(props.getProperty("tunnel.policy").trim().toUpperCase());
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property tunnel.policy: " + e);
+			}
+		}
+		if (props.containsKey("tunnel.idleTimeout")) {
+			try {
+				tunnelIdleTimeout = Double.parseDouble(props.getProperty("tunnel.idleTimeout"));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property tunnel.idleTimeout: " + e);
+			}
+		}
+		if (props.containsKey("ibr.introducer")) {
+			try {
+				introducer = IPv4.pack(InetAddress.getByName(props.getProperty("ibr.introducer").trim()));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property ibr.introducer: " + e);
+			}
+		}
+		if (props.containsKey("ibr.pending.capacity")) {
+			try {
+				int capacity = Integer.parseInt(props.getProperty("ibr.pending.capacity").trim());
+				if (capacity < 0) {
+					throw new IllegalArgumentException("ibr.pending.capacity < 0: " + capacity);
+				}
+				pendingCapacity = capacity;
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property ibr.pending.capacity: " + e);
+			}
+		}
+		if (props.containsKey("ibr.pending.timeout")) {
+			try {
+				double timeout = Double.parseDouble(props.getProperty("ibr.pending.timeout").trim());
+				if (!(timeout > 0)) {
+					throw new IllegalArgumentException("ibr.pending.timeout <= 0: " + timeout);
+				}
+				pendingTimeout = timeout;
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property ibr.pending.timeout: " + e);
+			}
+		}
+		if (props.containsKey("ibr.cache.size")) {
+			try {
+				int size = Integer.parseInt(props.getProperty("ibr.cache.size").trim());
+				if (size < 0) {
+					throw new IllegalArgumentException("ibr.cache.size < 0: " + size);
+				}
+				introductionCacheSize = size;
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property ibr.cache.size: " + e);
+			}
+		}
+		if (props.containsKey("ibr.cache.ttl")) {
+			try {
+				introductionCacheTTL = Double.parseDouble(props.getProperty("ibr.cache.ttl").trim());
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property ibr.cache.ttl: " + e);
+			}
+		}
+		if (props.containsKey("ibr.introductionTimeout")) {
+			try {
+				introductionTimeout = Double.parseDouble(props.getProperty("ibr.introductionTimeout").trim());
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property ibr.introductionTimeout: " + e);
+			}
+		}
+		if (props.containsKey("reputation.halfLife")) {
+			try {
+				reputationHalfLife = Double.parseDouble(props.getProperty("reputation.halfLife").trim());
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property reputation.halfLife: " + e);
+			}
+		}
+		if (props.containsKey("reputation.threshold")) {
+			try {
+				reputationThreshold = Double.parseDouble(props.getProperty("reputation.threshold").trim());
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property reputation.threshold: " + e);
+			}
+		}
+		if (tunnelPolicy == Host.TunnelPolicy.IBR && introducer == 0) {
+			Trace.error(Trace.Category.CONFIG, "tunnel.policy is ibr, but there is no ibr.introducer; using open.");
+			tunnelPolicy = Host.TunnelPolicy.OPEN;
+		}
+		Trace.info(Trace.Category.CONFIG, "The host specification: " + hostRegEx);
+		long start = System.nanoTime();
+		try {
+			hosts = new HostSet(HostSpec.parse(hostRegEx));
+		} catch (IllegalArgumentException e) {
+			Trace.error(Trace.Category.CONFIG, "Failure to parse property hosts: " + e);
+		}
+		appSets.clear();
+		appSets.add(new String[0]);
+		assignApplications(props);
+		Trace.info(Trace.Category.CONFIG, hosts.size() + " hosts configured in "
+				+ (System.nanoTime() - start) / 1000000 + " ms.");
+		if (props.containsKey("attack.types")) {
+			for (String type : props.getProperty("attack.types").split(",")) {
+				attackTypes.add(type.trim());
+			}
+		}
+		for (String type : attackTypes) {
+			attackRate.put(type, 0.0f);
+			if (props.containsKey(type + ".pAttack")) {
+				try {
+					float rate = Float.parseFloat(props.getProperty(type + ".pAttack"));
+					attackRate.put(type, rate);
+				} catch (Exception e) {
+					Trace.error(Trace.Category.CONFIG, "Failure to parse property " + type + ".pAttack: " + e);
+				}
+			}
+			if (props.containsKey(type + ".lambda")) {
+				try {
+					float lambda = Float.parseFloat(props.getProperty(type + ".lambda"));
+					transactionRateLambda.put(type, lambda);
+				} catch (Exception e) {
+					Trace.error(Trace.Category.CONFIG, "Failure to parse property " + type + ".lambda: " + e);
+				}
+			}
+			if (props.containsKey(type + ".dsttype")) {
+				destinations.put(type, props.getProperty(type + ".dsttype").trim());
+			}
+			try {
+				attackPatterns.put(type, parseAttackPattern(props, type));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse the pattern of attack " + type + ": " + e);
+				attackPatterns.put(type, AttackPattern.CONSTANT);
+			}
+			if (props.containsKey(type + ".hosts")) {
+				try {
+					HostSpec spec = HostSpec.parse(props.getProperty(type + ".hosts"));
+					for (int r = 0; r < spec.getRangeCount(); r++) {
+						int hi = spec.getHigh(r);
+						for (int i = hosts.ceilingIndex(spec.getLow(r)); i < hosts.size()
+								&& Integer.compareUnsigned(hosts.get(i), hi) <= 0; i++) {
+							wasCorruptedBy(IPv4.unpack(hosts.get(i)), type);
+						}
+					}
+				} catch (IllegalArgumentException e) {
+					Trace.error(Trace.Category.CONFIG, "Failure to parse property " + type + ".hosts: " + e);
+				}
+			}
+			parseSizes(props, type);
+			Trace.info(Trace.Category.CONFIG, "Attack " + type + ": lambda = " + transactionRateLambda.get(type)
+					+ ", pAttack = " + attackRate.get(type) + ", pattern " + attackPatterns.get(type) + ", against "
+					+ destinations.get(type) + ".");
+		}
+		for (String appName : applicationNames) {
+			applicationNames.add(appName);
+			if (props.containsKey(appName + ".port")) {
+				try {
+					int port = Integer.parseInt(props.getProperty(appName + ".port"));
+					Trace.info(Trace.Category.CONFIG, "Application " + appName + " listens to port " + port + ".");
+					serverPort.put(appName, port);
+				} catch (Exception e) {
+					Trace.error(Trace.Category.CONFIG, "Failure to parse property " + appName + ".port: " + e);
+				}
+			}
+			if (props.containsKey(appName + ".lambda")) {
+				try {
+					float lambda = Float.parseFloat(props.getProperty(appName + ".lambda"));
+					Trace.info(Trace.Category.CONFIG, "Application " + appName + " transmits with lambda = " + lambda + ".");
+					transactionRateLambda.put(appName, lambda);
+				} catch (Exception e) {
+					Trace.error(Trace.Category.CONFIG, "Failure to parse property " + appName + ".lambda: " + e);
+				}
+			} else {
+				Trace.info(Trace.Category.CONFIG, "Application " + appName + " does not transmit.");
+			}
+			if (props.containsKey(appName + ".dsttype")) {
+				destinations.put(appName, props.getProperty(appName + ".dsttype"));
+				Trace.info(Trace.Category.CONFIG, appName + " ==> " + destinations.get(appName));
+			}
+			parseSizes(props, appName);
+			parseService(props, appName);
+			parseTimeout(props, appName);
+		}
+		buildDestinationIndex();
+	}
+
+	private void parseSizes(Properties props, String type) {
+		for (String key : new String[] { "requestSize", "responseSize" }) {
+			String value = props.getProperty(type + "." + key);
+			if (value == null) {
+				continue;
+			}
+			try {
+				Distribution d = Distribution.parse(value);
+				(key.equals("requestSize") ? requestSizes : responseSizes).put(type, d);
+				Trace.info(Trace.Category.CONFIG, "Application " + type + " " + key + ": " + d + " packets.");
+			} catch (IllegalArgumentException e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse property " + type + "." + key + ": " + e);
+			}
+		}
+	}
+
+	private void parseService(Properties props, String type) {
+		String value = props.getProperty(type + ".serviceTime");
+		if (value == null) {
+			return;
+		}
+		try {
+			Distribution d = Distribution.parse(value);
+			int n = Integer.parseInt(props.getProperty(type + ".workers", "1").trim());
+			if (n < 1) {
+				throw new IllegalArgumentException(type + ".workers < 1");
+			}
+			serviceTimes.put(type, d);
+			workers.put(type, n);
+			Trace.info(Trace.Category.CONFIG, "Application " + type + " serves in " + d + " seconds with " + n
+					+ " worker" + (n == 1 ? "" : "s") + ".");
+		} catch (IllegalArgumentException e) {
+			Trace.error(Trace.Category.CONFIG, "Failure to parse the service model of " + type + ": " + e);
+		}
+	}
+
+	private void parseTimeout(Properties props, String type) {
+		if (!props.containsKey(type + ".timeout") && !props.containsKey(type + ".retries")) {
+			return;
+		}
+		try {
+			double t = Double.parseDouble(props.getProperty(type + ".timeout", "10").trim());
+			int n = Integer.parseInt(props.getProperty(type + ".retries", "0").trim());
+			if (!(t > 0) || n < 0) {
+				throw new IllegalArgumentException(type + ".timeout <= 0 or " + type + ".retries < 0");
+			}
+			timeouts.put(type, t);
+			retries.put(type, n);
+			Trace.info(Trace.Category.CONFIG, "Application " + type + " times out after " + t + " seconds, with " + n
+					+ " retr" + (n == 1 ? "y" : "ies") + ".");
+		} catch (IllegalArgumentException e) {
+			Trace.error(Trace.Category.CONFIG, "Failure to parse the timeout of " + type + ": " + e);
+		}
+	}
+
+	private static AttackPattern parseAttackPattern(Properties props, String type) {
+		String pattern = props.getProperty(type + ".pattern", "constant").trim().toLowerCase(Locale.ROOT);
+		switch (pattern) {
+		case "constant":
+			return AttackPattern.CONSTANT;
+		case "bursty":
+			return AttackPattern.bursty(Double.parseDouble(props.getProperty(type + ".burst.on", "1").trim()),
+					Double.parseDouble(props.getProperty(type + ".burst.off", "9").trim()));
+		case "flash":
+			return AttackPattern.flash(Double.parseDouble(props.getProperty(type + ".flash.start", "0").trim()),
+					Double.parseDouble(props.getProperty(type + ".flash.rise", "10").trim()),
+					Double.parseDouble(props.getProperty(type + ".flash.decay", "60").trim()));
+		default:
+			throw new IllegalArgumentException("unknown pattern " + pattern);
+		}
+	}
+
+	/**
+	 * Assign application types to hosts by rules. Every property whose key is
+	 * a {@link HostSpec} is a rule that runs the listed types on the hosts in
+	 * the spec; a per-address property such as <code>10.0.0.1: server</code>
+	 * is the narrowest rule. Where rules overlap, the rule covering fewer
+	 * addresses wins, so a broad rule can set a default that narrower rules
+	 * override. Each rule costs one pass over the hosts it covers.
+	 */
+	private void assignApplications(Properties props) {
+		List<String> keys = new ArrayList<>();
+		List<HostSpec> specs = new ArrayList<>();
+		for (String key : props.stringPropertyNames()) {
+			if (key.isEmpty() || !Character.isDigit(key.charAt(0))) {
+				continue;
+			}
+			try {
+				specs.add(HostSpec.parse(key));
+				keys.add(key);
+			} catch (IllegalArgumentException e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse the host spec " + key + ": " + e);
+			}
+		}
+		Integer[] order = new Integer[keys.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// Broadest first, so that narrower rules overwrite them
+		Arrays.sort(order, (a, b) -> {
+			int c = Long.compare(specs.get(b).size(), specs.get(a).size());
+			return c != 0 ? c : keys.get(a).compareTo(keys.get(b));
+		});
+		Map<String, Integer> appSetIndex = new HashMap<>();
+		for (int i : order) {
+			String apps = props.getProperty(keys.get(i));
+			Integer index = appSetIndex.get(apps);
+			if (index == null) {
+				String[] appArray = apps.split(",");
+				for (int j = 0; j < appArray.length; j++) {
+					appArray[j] = appArray[j].trim();
+					applicationNames.add(appArray[j]);
+				}
+				index = appSetIndex(appArray);
+				appSetIndex.put(apps, index);
+			}
+			int n = hosts.tagAll(specs.get(i), index);
+			if (Trace.isEnabled(Trace.Category.CONFIG, Trace.Level.DEBUG)) {
+				Trace.debug(Trace.Category.CONFIG, "Apps for " + keys.get(i) + " (" + n + " hosts): " + apps);
+			}
+		}
+	}
+
+	/**
+	 * @return the index in {@link #appSets} of the set of types, adding it if
+	 *         it is new
+	 */
+	private int appSetIndex(String[] types) {
+		for (int i = 0; i < appSets.size(); i++) {
+			if (Arrays.equals(appSets.get(i), types)) {
+				return i;
+			}
+		}
+		appSets.add(types);
+		return appSets.size() - 1;
+	}
+
+	private synchronized void buildDestinationIndex() {
+		// Count the servers of each type, then fill the arrays in one more pass
+		int[][] serverTypes = new int[appSets.size()][];
+		List<String> types = new ArrayList<>();
+		Map<String, Integer> typeIndex = new HashMap<>();
+		for (int s = 0; s < serverTypes.length; s++) {
+			String[] apps = appSets.get(s);
+			int[] t = new int[apps.length];
+			int n = 0;
+			for (String app : apps) {
+				if (isServer(app)) {
+					Integer ti = typeIndex.get(app);
+					if (ti == null) {
+						ti = types.size();
+						types.add(app);
+						typeIndex.put(app, ti);
+					}
+					t[n++] = ti;
+				}
+			}
+			serverTypes[s] = Arrays.copyOf(t, n);
+		}
+		int[] counts = new int[types.size()];
+		for (int i = 0; i < hosts.size(); i++) {
+			for (int t : serverTypes[hosts.getTag(i)]) {
+				counts[t]++;
+			}
+		}
+		int[][] addrs = new int[types.size()][];
+		for (int t = 0; t < addrs.length; t++) {
+			addrs[t] = new int[counts[t]];
+			counts[t] = 0;
+		}
+		for (int i = 0; i < hosts.size(); i++) {
+			for (int t : serverTypes[hosts.getTag(i)]) {
+				addrs[t][counts[t]++] = hosts.get(i);
+			}
+		}
+		Map<String, int[]> index = new HashMap<>();
+		for (int t = 0; t < addrs.length; t++) {
+			index.put(types.get(t), addrs[t]);
+		}
+		destinationIndex = index;
+	}
+
+	/**
+	 * Change the applications that run on a host, adding the host if it is
+	 * not already known.
+	 *
+	 * @param host
+	 *            the host's address
+	 * @param types
+	 *            the application types that now run on the host
+	 */
+	public synchronized void setApplicationTypes(InetAddress host, String... types) {
+		hosts.put(IPv4.pack(host), appSetIndex(types));
+		for (String type : types) {
+			applicationNames.add(type);
+		}
+		buildDestinationIndex();
+	}
+
+	public synchronized void removeHost(InetAddress host) {
+		hosts.remove(IPv4.pack(host));
+		buildDestinationIndex();
+	}
+
+	public boolean isServer(String name) {
+		return serverPort.containsKey(name);
+	}
+
+	public boolean isServer(String[] names) {
+		if (names == null)
+			return false;
+		for (String name : names) {
+			if (isServer(name))
+				return true;
+		}
+		return false;
+	}
+
+	public boolean isServer(InetAddress host) {
+		return isServer(getApplicationTypes(host));
+	}
+
+	public boolean isTrafficGenerator(String name) {
+		return transactionRateLambda.containsKey(name) && transactionRateLambda.get(name) > 0.0;
+	}
+
+	public boolean isTrafficGenerator(String[] names) {
+		if (names == null)
+			return false;
+		for (String name : names) {
+			if (isTrafficGenerator(name))
+				return true;
+		}
+		return false;
+	}
+
+	public boolean isTrafficGenerator(InetAddress host) {
+		return isTrafficGenerator(getApplicationTypes(host));
+	}
+
+	public synchronized float getAttackProbability(InetAddress host) {
+		return attackTypeByHost.containsKey(host) ? attackRate.get(attackTypeByHost.get(host)) : 0.0f;
+	}
+
+	public synchronized void wasCorruptedBy(InetAddress host, String attackType) {
+		assert (attackRate.containsKey(attackType));
+		attackTypeByHost.put(host, attackType);
+	}
+
+	/**
+	 * @return the type of attack by which the host has been corrupted, or null
+	 *         if it has not been
+	 */
+	public synchronized String getAttackType(InetAddress host) {
+		return attackTypeByHost.get(host);
+	}
+
+	public boolean isAttackType(String name) {
+		return attackTypes.contains(name);
+	}
+
+	/**
+	 * @return how the intensity of an attack flow of the type varies over
+	 *         time
+	 */
+	public AttackPattern getAttackPattern(String attackType) {
+		AttackPattern pattern = attackPatterns.get(attackType);
+		return pattern == null ? AttackPattern.CONSTANT : pattern;
+	}
+
+	/**
+	 * For a named traffic generator, draw the number of packets in a request,
+	 * from the distribution <code>&lt;name&gt;.requestSize</code>. The
+	 * packets travel as one message, a packet train.
+	 * 
+	 * @param name
+	 *            the name of the application
+	 * @param random
+	 *            the stream of the thread that sends the request
+	 * @return number of packets, >= 1 and at most {@link Short#MAX_VALUE}
+	 */
+	public int getRequestSize(String name, SplittableRandom random) {
+		return drawSize(requestSizes.get(name), random);
+	}
+
+	/**
+	 * For a named server, draw the number of packets in a response, from the
+	 * distribution <code>&lt;name&gt;.responseSize</code>.
+	 */
+	public int getResponseSize(String name, SplittableRandom random) {
+		return drawSize(responseSizes.get(name), random);
+	}
+
+	private static int drawSize(Distribution d, SplittableRandom random) {
+		if (d == null) {
+			return 1;
+		}
+		return (int) Math.max(1, Math.min(Short.MAX_VALUE, Math.round(d.sample(random))));
+	}
+
+	/**
+	 * @return the distribution of the seconds a server of the type takes to
+	 *         serve a message, from <code>&lt;name&gt;.serviceTime</code>, or
+	 *         null if it answers at once
+	 */
+	public Distribution getServiceTime(String name) {
+		return serviceTimes.get(name);
+	}
+
+	/**
+	 * @return the number of messages that a server of the type serves at
+	 *         once, from <code>&lt;name&gt;.workers</code>
+	 */
+	public int getWorkers(String name) {
+		Integer n = workers.get(name);
+		return n == null ? 1 : n;
+	}
+
+	/**
+	 * @return the seconds that a client of the type waits for a response,
+	 *         from <code>&lt;name&gt;.timeout</code> (default 10)
+	 */
+	public double getTimeout(String name) {
+		Double t = timeouts.get(name);
+		return t == null ? 10.0 : t;
+	}
+
+	/**
+	 * @return the number of times that a client of the type sends an
+	 *         unanswered request again, from <code>&lt;name&gt;.retries</code>
+	 */
+	public int getRetries(String name) {
+		Integer n = retries.get(name);
+		return n == null ? 0 : n;
+	}
+
+	public String[] getApplicationTypes(InetAddress addr) {
+		return getApplicationTypes(IPv4.pack(addr));
+	}
+
+	/**
+	 * @return the application types that run on the host with the packed
+	 *         address, or an empty array if there are none
+	 */
+	public synchronized String[] getApplicationTypes(int addr) {
+		int i = hosts.indexOf(addr);
+		return appSets.get(i < 0 ? 0 : hosts.getTag(i));
+	}
+
+	public int getPort(String appType) {
+		if (appType == null) {
+			throw new IllegalArgumentException("type == null");
+		}
+		if (!serverPort.containsKey(appType)) {
+			return -1;
+		}
+		return serverPort.get(appType);
+	}
+
+	public Float getLambda(String type) {
+		return transactionRateLambda.get(type);
+	}
+
+	public Simulation.Mode getSimulationMode() {
+		return simulationMode;
+	}
+
+	/**
+	 * @return whether applications exchange messages through the simulator
+	 *         or over real sockets
+	 */
+	public ComponentFactory.Context getContext() {
+		return context;
+	}
+
+	/**
+	 * @return the simulated time, in seconds, to run a discrete-event
+	 *         simulation
+	 */
+	public double getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return whether real-time application loops run in platform or virtual
+	 *         threads
+	 */
+	public Simulation.Threads getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return the stack size, in bytes, of platform threads; 0 for the JVM
+	 *         default
+	 */
+	public long getThreadStackSize() {
+		return threadStackSize;
+	}
+
+	/**
+	 * @return the number of recycled messages that each thread keeps for
+	 *         reuse; 0 if messages are not pooled
+	 */
+	public int getMessagePoolCapacity() {
+		return messagePoolCapacity;
+	}
+
+	/**
+	 * @return the number of threads among which the hosts of a discrete-event
+	 *         simulation are divided
+	 */
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * @return the interval, in nanoseconds, at which request timeouts are
+	 *         checked, from <code>simulation.timerTick</code>
+	 */
+	public long getTimerTickNanos() {
+		return timerTickNanos;
+	}
+
+	/**
+	 * @return the master random seed, or null if none was configured
+	 */
+	public Long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Create the queue for a port of the named application. The queue is
+	 * configured by the properties <code>queue.capacity</code>,
+	 * <code>queue.policy</code> (<code>tail_drop</code>,
+	 * <code>head_drop</code> or <code>red</code>) and, for RED,
+	 * <code>queue.red.minThreshold</code>, <code>queue.red.maxThreshold</code>,
+	 * <code>queue.red.maxProbability</code> and <code>queue.red.weight</code>.
+	 * Each may be overridden for one application by prefixing it with the
+	 * application's name, as in <code>server.queue.capacity</code>.
+	 *
+	 * @param appType
+	 *            the name of the application
+	 * @param random
+	 *            the stream from which RED draws its drop decisions
+	 */
+	public MessageQueue createQueue(String appType, SplittableRandom random) {
+		QueueSpec spec;
+		synchronized (this) {
+			spec = queueSpecs.get(appType);
+			if (spec == null) {
+				spec = new QueueSpec(appType);
+				queueSpecs.put(appType, spec);
+			}
+		}
+		if (spec.policy == MessageQueue.Policy.RED) {
+			return new MessageQueue(spec.capacity, spec.minThreshold, spec.maxThreshold, spec.maxProbability,
+					spec.weight, random);
+		}
+		return new MessageQueue(spec.capacity, spec.policy);
+	}
+
+	private String queueProperty(String appType, String key, String dflt) {
+		String value = props.getProperty(appType + ".queue." + key);
+		if (value == null) {
+			value = props.getProperty("queue." + key, dflt);
+		}
+		return value.trim();
+	}
+
+	private class QueueSpec {
+		int capacity = SimCommsPort.DEFAULT_CAPACITY;
+		MessageQueue.Policy policy = MessageQueue.Policy.TAIL_DROP;
+		double minThreshold;
+		double maxThreshold;
+		double maxProbability;
+		double weight;
+
+		/**
+		 * Parse each setting on its own, so that a bad one falls back to its
+		 * default without disturbing the others, and no setting that a
+		 * {@link MessageQueue} would reject survives.
+		 */
+		QueueSpec(String appType) {
+			try {
+				int c = Integer.parseInt(queueProperty(appType, "capacity", Integer.toString(capacity)));
+				if (c <= 0) {
+					throw new IllegalArgumentException("capacity <= 0: " + c);
+				}
+				capacity = c;
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse the queue capacity of " + appType + ": " + e);
+			}
+			try {
+				policy = MessageQueue.Policy.valueOf(queueProperty(appType, "policy", "tail_drop").toUpperCase());
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse the queue policy of " + appType + ": " + e);
+			}
+			minThreshold = parseRed(appType, "minThreshold", capacity / 4.0);
+			maxThreshold = parseRed(appType, "maxThreshold", capacity / 2.0);
+			maxProbability = parseRed(appType, "maxProbability", 0.1);
+			weight = parseRed(appType, "weight", 0.002);
+			if (!(minThreshold < maxThreshold)) {
+				Trace.error(Trace.Category.CONFIG, "The RED thresholds of " + appType + " need min < max; using "
+						+ capacity / 4.0 + " and " + capacity / 2.0);
+				minThreshold = capacity / 4.0;
+				maxThreshold = capacity / 2.0;
+			}
+		}
+
+		private double parseRed(String appType, String key, double dflt) {
+			try {
+				return Double.parseDouble(queueProperty(appType, "red." + key, Double.toString(dflt)));
+			} catch (Exception e) {
+				Trace.error(Trace.Category.CONFIG, "Failure to parse the queue red." + key + " of " + appType + ": "
+						+ e);
+				return dflt;
+			}
+		}
+	}
+
+	/**
+	 * Create the model of the links between hosts. The property
+	 * <code>link.model</code> is <code>ideal</code>, <code>queueing</code> or
+	 * the name of a class that implements {@link LinkModel}. If it is not set,
+	 * the links are queueing links if any <code>link.</code> parameter is
+	 * given, and ideal otherwise.
+	 */
+	public LinkModel getLinkModel() {
+		String name = props.getProperty("link.model");
+		if (name == null) {
+			boolean parameterized = false;
+			for (String key : props.stringPropertyNames()) {
+				parameterized |= key.startsWith("link.");
+			}
+			name = parameterized ? "queueing" : "ideal";
+		}
+		name = name.trim();
+		LinkModel model;
+		try {
+			if (name.equalsIgnoreCase("ideal")) {
+				model = new IdealLinkModel();
+			} else if (name.equalsIgnoreCase("queueing")) {
+				model = new QueueingLinkModel();
+			} else {
+				model = (LinkModel) Class.forName(name).getDeclaredConstructor().newInstance();
+			}
+			model.configure(props);
+		} catch (Exception e) {
+			Trace.error(Trace.Category.CONFIG, "Failure to create link model " + name + ": " + e);
+			model = new IdealLinkModel();
+		}
+		return model;
+	}
+
+	public Host.TunnelPolicy getTunnelPolicy() {
+		return tunnelPolicy;
+	}
+
+	/**
+	 * @return the seconds after which an unused tunnel is torn down; 0 if
+	 *         tunnels never expire
+	 */
+	public double getTunnelIdleTimeout() {
+		return tunnelIdleTimeout;
+	}
+
+	/**
+	 * @return the packed address of the introducer, or 0 if there is none
+	 */
+	public int getIntroducer() {
+		return introducer;
+	}
+
+	/**
+	 * @return the number of completed introductions each host remembers
+	 */
+	public int getIntroductionCacheSize() {
+		return introductionCacheSize;
+	}
+
+	/**
+	 * @return the seconds for which a completed introduction is remembered
+	 */
+	public double getIntroductionCacheTTL() {
+		return introductionCacheTTL;
+	}
+
+	/**
+	 * @return the seconds after which an unanswered introduction request may
+	 *         be repeated
+	 */
+	public double getIntroductionTimeout() {
+		return introductionTimeout;
+	}
+
+	/**
+	 * @return the most messages that a host holds for one destination while
+	 *         it waits for an introduction
+	 */
+	public int getPendingCapacity() {
+		return pendingCapacity;
+	}
+
+	/**
+	 * @return the seconds after which a message waiting for an introduction
+	 *         is dropped
+	 */
+	public double getPendingTimeout() {
+		return pendingTimeout;
+	}
+
+	/**
+	 * @return the seconds in which feedback about a peer loses half its weight
+	 */
+	public double getReputationHalfLife() {
+		return reputationHalfLife;
+	}
+
+	/**
+	 * @return the decayed count of attacks from a peer at which it is
+	 *         distrusted
+	 */
+	public double getReputationThreshold() {
+		return reputationThreshold;
+	}
+
+	/**
+	 * @return the packed addresses of the hosts, in address order
+	 */
+	public synchronized int[] getHosts() {
+		return hosts.toArray();
+	}
+
+	/**
+	 * Choose, uniformly at random, a server of the type that the named
+	 * application sends to.
+	 *
+	 * @param type
+	 *            the name of the sending application
+	 * @param random
+	 *            the sender's random stream
+	 * @return the server's address and port, or null if there is no server of
+	 *         the destination type
+	 */
+	public InetSocketAddress getDestinationAddress(String type, SplittableRandom random) {
+		int addr = getDestinationIPv4(type, random);
+		if (addr == 0) {
+			return null;
+		}
+		return new InetSocketAddress(IPv4.unpack(addr), getDestinationPort(type));
+	}
+
+	/**
+	 * Choose, uniformly at random, a server of the type that the named
+	 * application sends to, without allocating.
+	 *
+	 * @param type
+	 *            the name of the sending application
+	 * @param random
+	 *            the sender's random stream
+	 * @return the server's packed address, or 0 if there is no server of the
+	 *         destination type
+	 */
+	public int getDestinationIPv4(String type, SplittableRandom random) {
+		if (type == null) {
+			throw new IllegalArgumentException("type == null");
+		}
+		int[] dsts = destinationIndex.get(destinations.get(type));
+		if (dsts == null || dsts.length == 0) {
+			return 0;
+		}
+		return dsts[random.nextInt(dsts.length)];
+	}
+
+	/**
+	 * @return the port of the servers that the named application sends to, or
+	 *         -1 if it does not send
+	 */
+	public int getDestinationPort(String type) {
+		String dstType = destinations.get(type);
+		return dstType == null ? -1 : getPort(dstType);
+	}
+}
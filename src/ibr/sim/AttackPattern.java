@@ -0,0 +1,94 @@
+package ibr.sim;
+
+/**
+ * How the intensity of an attack flow varies over time. An attacker draws
+ * candidate arrivals at its peak rate and keeps each with probability
+ * {@link #intensity(double)} (thinning), so every pattern uses the same
+ * arrival process as an ordinary client.
+ * <ul>
+ * <li><code>CONSTANT</code>: always at the peak rate.</li>
+ * <li><code>BURSTY</code>: at the peak rate for <code>on</code> seconds,
+ * then silent for <code>off</code> seconds, repeatedly.</li>
+ * <li><code>FLASH</code>: silent until <code>start</code>, rising linearly
+ * to the peak over <code>rise</code> seconds, then decaying exponentially
+ * with time constant <code>decay</code>.</li>
+ * </ul>
+ *
+ * @author glfrazier
+ *
+ */
+public class AttackPattern {
+
+	public enum Shape {
+		CONSTANT, BURSTY, FLASH
+	};
+
+	public static final AttackPattern CONSTANT = new AttackPattern(Shape.CONSTANT, 0, 0, 0);
+
+	private final Shape shape;
+
+	private final double a;
+
+	private final double b;
+
+	private final double c;
+
+	private AttackPattern(Shape shape, double a, double b, double c) {
+		this.shape = shape;
+		this.a = a;
+		this.b = b;
+		this.c = c;
+	}
+
+	public static AttackPattern bursty(double on, double off) {
+		if (on <= 0 || off < 0) {
+			throw new IllegalArgumentException("bursty(" + on + ", " + off + ")");
+		}
+		return new AttackPattern(Shape.BURSTY, on, off, 0);
+	}
+
+	public static AttackPattern flash(double start, double rise, double decay) {
+		if (start < 0 || rise < 0 || decay <= 0) {
+			throw new IllegalArgumentException("flash(" + start + ", " + rise + ", " + decay + ")");
+		}
+		return new AttackPattern(Shape.FLASH, start, rise, decay);
+	}
+
+	public Shape getShape() {
+		return shape;
+	}
+
+	/**
+	 * @param t
+	 *            seconds since the simulation began
+	 * @return the fraction of the peak rate at which to attack at time t
+	 */
+	public double intensity(double t) {
+		switch (shape) {
+		case BURSTY:
+			return t % (a + b) < a ? 1.0 : 0.0;
+		case FLASH:
+			if (t < a) {
+				return 0.0;
+			}
+			if (t < a + b) {
+				return (t - a) / b;
+			}
+			return Math.exp(-(t - a - b) / c);
+		default:
+			return 1.0;
+		}
+	}
+
+	public String toString() {
+		switch (shape) {
+		case BURSTY:
+			return "bursty(on " + a + "s, off " + b + "s)";
+		case FLASH:
+			return "flash(start " + a + "s, rise " + b + "s, decay " + c + "s)";
+		default:
+			return "constant";
+		}
+	}
+
+}
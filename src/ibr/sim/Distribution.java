@@ -0,0 +1,193 @@
+package ibr.sim;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * A distribution of non-negative values, such as the sizes of messages, from
+ * which a component draws with its own random stream. Written in the
+ * configuration as a number, for a constant, or as one of
+ * <ul>
+ * <li><code>uniform(min, max)</code></li>
+ * <li><code>exponential(mean)</code></li>
+ * <li><code>pareto(min, alpha)</code>: heavy-tailed, with values of at least
+ * <code>min</code>; the smaller <code>alpha</code>, the heavier the tail</li>
+ * <li><code>lognormal(mean, stddev)</code></li>
+ * </ul>
+ * A constant draws nothing from the stream, so configuring one leaves every
+ * other draw, and so the rest of a seeded run, unchanged.
+ *
+ * @author glfrazier
+ *
+ */
+public class Distribution {
+
+	public enum Shape {
+		CONSTANT, UNIFORM, EXPONENTIAL, PARETO, LOGNORMAL
+	};
+
+	private final Shape shape;
+
+	private final double a;
+
+	private final double b;
+
+	private Distribution(Shape shape, double a, double b) {
+		this.shape = shape;
+		this.a = a;
+		this.b = b;
+	}
+
+	public static Distribution constant(double value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("constant(" + value + ")");
+		}
+		return new Distribution(Shape.CONSTANT, value, 0);
+	}
+
+	public static Distribution uniform(double min, double max) {
+		if (min < 0 || max < min) {
+			throw new IllegalArgumentException("uniform(" + min + ", " + max + ")");
+		}
+		return new Distribution(Shape.UNIFORM, min, max);
+	}
+
+	public static Distribution exponential(double mean) {
+		if (mean <= 0) {
+			throw new IllegalArgumentException("exponential(" + mean + ")");
+		}
+		return new Distribution(Shape.EXPONENTIAL, mean, 0);
+	}
+
+	public static Distribution pareto(double min, double alpha) {
+		if (min <= 0 || alpha <= 0) {
+			throw new IllegalArgumentException("pareto(" + min + ", " + alpha + ")");
+		}
+		return new Distribution(Shape.PARETO, min, alpha);
+	}
+
+	/**
+	 * A lognormal distribution with the given mean and standard deviation,
+	 * which are those of the values drawn rather than of their logarithms.
+	 */
+	public static Distribution lognormal(double mean, double stddev) {
+		if (mean <= 0 || stddev < 0) {
+			throw new IllegalArgumentException("lognormal(" + mean + ", " + stddev + ")");
+		}
+		double sigma2 = Math.log(1 + stddev * stddev / (mean * mean));
+		return new Distribution(Shape.LOGNORMAL, Math.log(mean) - sigma2 / 2, Math.sqrt(sigma2));
+	}
+
+	/**
+	 * Parse a distribution as written in the configuration.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the text is not a distribution
+	 */
+	public static Distribution parse(String text) {
+		String s = text.trim().toLowerCase(Locale.ROOT);
+		int open = s.indexOf('(');
+		if (open < 0) {
+			return constant(Double.parseDouble(s));
+		}
+		if (!s.endsWith(")")) {
+			throw new IllegalArgumentException("Missing ')' in " + text);
+		}
+		String name = s.substring(0, open).trim();
+		String[] args = s.substring(open + 1, s.length() - 1).split(",");
+		double[] p = new double[args.length];
+		for (int i = 0; i < args.length; i++) {
+			p[i] = Double.parseDouble(args[i].trim());
+		}
+		switch (name) {
+		case "constant":
+			checkArgs(text, p, 1);
+			return constant(p[0]);
+		case "uniform":
+			checkArgs(text, p, 2);
+			return uniform(p[0], p[1]);
+		case "exponential":
+			checkArgs(text, p, 1);
+			return exponential(p[0]);
+		case "pareto":
+			checkArgs(text, p, 2);
+			return pareto(p[0], p[1]);
+		case "lognormal":
+			checkArgs(text, p, 2);
+			return lognormal(p[0], p[1]);
+		default:
+			throw new IllegalArgumentException("Unknown distribution " + name);
+		}
+	}
+
+	private static void checkArgs(String text, double[] p, int n) {
+		if (p.length != n) {
+			throw new IllegalArgumentException(text + " takes " + n + " parameter" + (n == 1 ? "" : "s"));
+		}
+	}
+
+	public Shape getShape() {
+		return shape;
+	}
+
+	public boolean isConstant() {
+		return shape == Shape.CONSTANT;
+	}
+
+	public double sample(SplittableRandom random) {
+		switch (shape) {
+		case UNIFORM:
+			return a + (b - a) * random.nextDouble();
+		case EXPONENTIAL:
+			return -a * Math.log(1 - random.nextDouble());
+		case PARETO:
+			return a / Math.pow(1 - random.nextDouble(), 1 / b);
+		case LOGNORMAL:
+			return Math.exp(a + b * gaussian(random));
+		default:
+			return a;
+		}
+	}
+
+	/**
+	 * A standard normal deviate, by the Box-Muller transform.
+	 */
+	private static double gaussian(SplittableRandom random) {
+		double u = 1 - random.nextDouble();
+		double v = random.nextDouble();
+		return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+	}
+
+	/**
+	 * @return the mean of the distribution; infinite for a Pareto
+	 *         distribution with <code>alpha</code> of at most 1
+	 */
+	public double getMean() {
+		switch (shape) {
+		case UNIFORM:
+			return (a + b) / 2;
+		case PARETO:
+			return b <= 1 ? Double.POSITIVE_INFINITY : a * b / (b - 1);
+		case LOGNORMAL:
+			return Math.exp(a + b * b / 2);
+		default:
+			return a;
+		}
+	}
+
+	public String toString() {
+		switch (shape) {
+		case UNIFORM:
+			return "uniform(" + a + ", " + b + ")";
+		case EXPONENTIAL:
+			return "exponential(" + a + ")";
+		case PARETO:
+			return "pareto(" + a + ", " + b + ")";
+		case LOGNORMAL:
+			return "lognormal(mean " + getMean() + ")";
+		default:
+			return Double.toString(a);
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package ibr.sim;
+
+/**
+ * Something that happens at a point in simulated time. Events are ordered by
+ * time; events scheduled for the same instant fire in the order in which they
+ * were scheduled.
+ *
+ * @author glfrazier
+ *
+ */
+public abstract class Event implements Comparable<Event> {
+
+	long time;
+
+	long seq;
+
+	/**
+	 * @return the simulated time, in nanoseconds, at which this event fires
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public abstract void fire();
+
+	@Override
+	public int compareTo(Event e) {
+		if (time != e.time) {
+			return time < e.time ? -1 : 1;
+		}
+		return seq < e.seq ? -1 : (seq == e.seq ? 0 : 1);
+	}
+
+}
@@ -0,0 +1,116 @@
+package ibr.sim;
+
+import java.util.PriorityQueue;
+
+/**
+ * The discrete-event core of the simulator: a virtual clock and a priority
+ * queue of pending events. Running the scheduler repeatedly removes the
+ * earliest event, advances the clock to its time, and fires it. Nothing
+ * sleeps, so an hour of simulated traffic takes only as long as it takes to
+ * process its events.
+ *
+ * @author glfrazier
+ *
+ */
+public class EventScheduler {
+
+	private final PriorityQueue<Event> queue = new PriorityQueue<>();
+
+	private long now;
+
+	private long nextSeq;
+
+	private long eventCount;
+
+	/**
+	 * @return the current simulated time, in nanoseconds
+	 */
+	public long now() {
+		return now;
+	}
+
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	public int getPendingCount() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the time of the earliest pending event, or
+	 *         <code>Long.MAX_VALUE</code> if there is none
+	 */
+	public long peekTime() {
+		Event e = queue.peek();
+		return e == null ? Long.MAX_VALUE : e.time;
+	}
+
+	/**
+	 * Schedule an event to fire after the specified delay.
+	 *
+	 * @param e
+	 *            the event
+	 * @param delayNanos
+	 *            nanoseconds from now, >= 0
+	 */
+	public void schedule(Event e, long delayNanos) {
+		if (delayNanos < 0) {
+			throw new IllegalArgumentException("delay < 0: " + delayNanos);
+		}
+		scheduleAt(e, now + delayNanos);
+	}
+
+	public void scheduleAt(Event e, long time) {
+		if (time < now) {
+			throw new IllegalArgumentException("Cannot schedule " + e + " in the past (" + time + " < " + now + ")");
+		}
+		e.time = time;
+		e.seq = nextSeq++;
+		queue.add(e);
+	}
+
+	/**
+	 * Fire events, in time order, until the queue is empty, the next event
+	 * would occur after <code>endTime</code>, or the simulation is terminated.
+	 *
+	 * @param endTime
+	 *            the simulated time, in nanoseconds, at which to stop
+	 */
+	public void run(long endTime) {
+		while (Simulation.isRunning()) {
+			Event e = queue.peek();
+			if (e == null || e.time > endTime) {
+				break;
+			}
+			queue.poll();
+			now = e.time;
+			eventCount++;
+			e.fire();
+		}
+	}
+
+	/**
+	 * Fire events, in time order, whose times are before <code>limit</code>.
+	 * The clock is left at the time of the last event fired, not advanced to
+	 * the limit.
+	 *
+	 * @return the number of events fired
+	 */
+	public long runUntil(long limit) {
+		long count = 0;
+		while (Simulation.isRunning()) {
+			Event e = queue.peek();
+			if (e == null || e.time >= limit) {
+				break;
+			}
+			queue.poll();
+			now = e.time;
+			count++;
+			e.fire();
+		}
+		eventCount += count;
+		return count;
+	}
+
+}
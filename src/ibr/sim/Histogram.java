@@ -0,0 +1,147 @@
+package ibr.sim;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values, such as latencies in nanoseconds,
+ * in fixed memory. As in an HdrHistogram, values below 128 have buckets of
+ * their own; above that, each power of two is split into 64 buckets, so a
+ * recorded value is off by less than 1/64 (1.6%) of itself. The whole range
+ * of a long fits in {@link #BUCKETS} counters, about 30 KB.
+ * <p>
+ * Recording is one atomic increment, so any number of threads may record at
+ * once without locking.
+ *
+ * @author glfrazier
+ *
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKETS = 64;
+
+	public static final int BUCKETS = 2 * SUB_BUCKETS + 56 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	static int index(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+		int sub = (int) (value >>> shift);
+		return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (sub - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return the smallest value that is counted in the bucket
+	 */
+	static long lowestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+		long sub = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return sub << shift;
+	}
+
+	/**
+	 * @return the largest value that is counted in the bucket
+	 */
+	static long highestValue(int index) {
+		return index == BUCKETS - 1 ? Long.MAX_VALUE : lowestValue(index + 1) - 1;
+	}
+
+	public void record(long value) {
+		counts.incrementAndGet(index(value));
+	}
+
+	/**
+	 * Copy the counts, so that a consistent set of statistics can be computed
+	 * while other threads go on recording.
+	 */
+	public Snapshot snapshot() {
+		long[] c = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			c[i] = counts.get(i);
+		}
+		return new Snapshot(c);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	/**
+	 * The counts of a histogram at one moment.
+	 */
+	public static class Snapshot {
+
+		private final long[] counts;
+
+		private final long total;
+
+		private Snapshot(long[] counts) {
+			this.counts = counts;
+			long n = 0;
+			for (long c : counts) {
+				n += c;
+			}
+			this.total = n;
+		}
+
+		public long getCount() {
+			return total;
+		}
+
+		/**
+		 * @return the mean, taking each value as the midpoint of its bucket
+		 */
+		public double getMean() {
+			if (total == 0) {
+				return 0;
+			}
+			double sum = 0;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] != 0) {
+					sum += counts[i] * ((double) lowestValue(i) + highestValue(i)) / 2;
+				}
+			}
+			return sum / total;
+		}
+
+		/**
+		 * @param percentile
+		 *            between 0 and 100
+		 * @return the highest value of the bucket in which the percentile
+		 *         falls, or 0 if nothing has been recorded
+		 */
+		public long getPercentile(double percentile) {
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(percentile / 100.0 * total);
+			rank = Math.max(1, Math.min(rank, total));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return highestValue(i);
+				}
+			}
+			return highestValue(counts.length - 1);
+		}
+
+		public long getMax() {
+			for (int i = counts.length - 1; i >= 0; i--) {
+				if (counts[i] != 0) {
+					return highestValue(i);
+				}
+			}
+			return 0;
+		}
+
+	}
+
+}
@@ -1,110 +1,523 @@
-package ibr.sim;
-
-import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import ibr.core.CommsPort;
-import ibr.core.ComponentFactory;
-import ibr.core.Message;
-import ibr.core.Node;
-import jdk.net.Sockets;
-
-public class Host {
-
-	private Set<InetAddress> tunnels;
-
-	private Queue<Message> unsendableQueue;
-
-	private Map<CommsPort, Application> applications;
-
-	private InetAddress addr;
-
-	private AtomicInteger nextEtherealPort = new AtomicInteger(16000);
-
-	private Map<Integer, SimCommsPort> mysocks = new HashMap<>();
-
-	@SuppressWarnings("serial")
-	public Host(InetAddress addr, Node node, ApplicationConfigurationServer configServer) {
-		this.addr = addr;
-		this.tunnels = new HashSet<InetAddress>() {
-			public boolean contains(Object o) {
-				return true;
-			}
-		};
-		this.unsendableQueue = node.getUnsendableQueue();
-		Simulation.addHost(this);
-		this.applications = new HashMap<CommsPort, Application>();
-		this.configure(configServer);
-	}
-
-	private void configure(ApplicationConfigurationServer configServer) {
-		String[] appnames = configServer.getApplicationTypes(addr);
-		System.out.println(this + " in configure, we have " + appnames.length + " apps.");
-		for (String name : appnames) {
-			Application app = new Application(this, name, configServer);
-			SimCommsPort cport = (SimCommsPort) app.getCommsPort();
-			applications.put(cport, app);
-			mysocks.put(cport.getPort(), cport);
-		}
-	}
-
-	public void send(Message msg) {
-		InetAddress dst = msg.getDstAddr();
-		if (tunnels.contains(dst)) {
-			Host dstHost = Simulation.getHost(dst);
-			dstHost.receive(msg);
-		} else {
-			System.out.println(this + " tunnel does not contain " + dst);
-		}
-	}
-
-	private void receive(Message msg) {
-		InetAddress src = msg.getSrcAddr();
-		if (!tunnels.contains(src)) {
-			return;
-		}
-		int port = msg.getDstPort();
-		SimCommsPort cport = mysocks.get(port);
-		if (cport != null) {
-			cport.deliver(msg);
-		} else {
-			System.err.println(this + " does not have a socket on port " + port);
-		}
-	}
-
-	public InetAddress getAddr() {
-		return addr;
-	}
-
-	public CommsPort getEtherealPort() {
-		int port = nextEtherealPort.getAndIncrement();
-		return ComponentFactory.createCommsPort(addr, port);
-	}
-
-	public void simulate() {
-		System.out.println(this + " is beginning simulation");
-		for (Application a : applications.values()) {
-			System.out.println("Starting application " + a);
-			a.begin();
-		}
-		System.out.println("Applications started.");
-	}
-
-	public static String ipstrip(String ipaddr) {
-		int i = ipaddr.indexOf('/');
-		if (i >= 0) {
-			return ipaddr.substring(i + 1);
-		}
-		return ipaddr;
-	}
-
-	public String toString() {
-		return ipstrip(addr.toString());
-	}
-
-}
+package ibr.sim;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import ibr.core.CommsPort;
+import ibr.core.ComponentFactory;
+import ibr.core.IPv4;
+import ibr.core.Message;
+import ibr.core.Node;
+import ibr.core.UnsendableQueue;
+import jdk.net.Sockets;
+
+public class Host {
+
+	/**
+	 * Whether a host may exchange messages with a peer to which it has no
+	 * tunnel. Under <code>OPEN</code>, a tunnel is created for the first
+	 * message in either direction; under <code>CLOSED</code>, such messages are
+	 * dropped; under <code>IBR</code>, tunnels are created by introduction
+	 * (see {@link IntroductionAgent}).
+	 */
+	public enum TunnelPolicy {
+		OPEN, CLOSED, IBR
+	};
+
+	private TunnelTable tunnels = new TunnelTable();
+
+	private TunnelPolicy tunnelPolicy;
+
+	/**
+	 * Tunnels unused for this long, in nanoseconds, are torn down; 0 if they
+	 * never expire.
+	 */
+	private long tunnelIdleNanos;
+
+	private AtomicBoolean sweepScheduled = new AtomicBoolean();
+
+	private IntroductionAgent introductions;
+
+	/**
+	 * What this host thinks of its peers, from the feedback of its
+	 * applications.
+	 */
+	private ReputationTable reputation;
+
+	private AtomicInteger distrusts = new AtomicInteger();
+
+	private static final AtomicLongFieldUpdater<Host> MESSAGES_SENT = AtomicLongFieldUpdater
+			.newUpdater(Host.class, "messagesSent");
+
+	private static final AtomicLongFieldUpdater<Host> MESSAGES_RECEIVED = AtomicLongFieldUpdater
+			.newUpdater(Host.class, "messagesReceived");
+
+	private static final AtomicLongFieldUpdater<Host> MESSAGES_DROPPED = AtomicLongFieldUpdater
+			.newUpdater(Host.class, "messagesDropped");
+
+	private static final AtomicLongFieldUpdater<Host> PACKETS_SENT = AtomicLongFieldUpdater
+			.newUpdater(Host.class, "packetsSent");
+
+	private static final AtomicLongFieldUpdater<Host> PACKETS_RECEIVED = AtomicLongFieldUpdater
+			.newUpdater(Host.class, "packetsReceived");
+
+	private static final AtomicLongFieldUpdater<Host> PACKETS_DROPPED = AtomicLongFieldUpdater
+			.newUpdater(Host.class, "packetsDropped");
+
+	/**
+	 * What this host has sent, received and dropped, counted both as
+	 * messages and as the packets those messages stand for. A message of
+	 * several packets is a packet train: it moves as one message, and so
+	 * costs one event, but every packet is counted.
+	 */
+	private volatile long messagesSent;
+
+	private volatile long messagesReceived;
+
+	private volatile long messagesDropped;
+
+	private volatile long packetsSent;
+
+	private volatile long packetsReceived;
+
+	private volatile long packetsDropped;
+
+	/**
+	 * Messages waiting for an introduction to their destinations.
+	 */
+	private UnsendableQueue unsendableQueue;
+
+	private AtomicBoolean pendingSweepScheduled = new AtomicBoolean();
+
+	private Map<CommsPort, Application> applications;
+
+	private InetAddress addr;
+
+	private int ipv4;
+
+	/**
+	 * The partition whose thread fires this host's events, when the
+	 * simulation is partitioned.
+	 */
+	private int partition;
+
+	private IdAllocator idAllocator;
+
+	private Link link = new Link();
+
+	/**
+	 * The root of this host's random streams; each application splits its own
+	 * stream from it.
+	 */
+	private SplittableRandom random;
+
+	private static final int ETHEREAL_BASE = 16000;
+
+	private AtomicInteger nextEtherealPort = new AtomicInteger(ETHEREAL_BASE);
+
+	private PortTable mysocks = new PortTable(ETHEREAL_BASE);
+
+	public Host(InetAddress addr, Node node, ApplicationConfigurationServer configServer) {
+		this.addr = addr;
+		this.ipv4 = IPv4.pack(addr);
+		this.idAllocator = new IdAllocator(ipv4);
+		this.random = Simulation.newRandom(ipv4);
+		this.tunnelPolicy = configServer.getTunnelPolicy();
+		this.tunnelIdleNanos = (long) (configServer.getTunnelIdleTimeout() * 1.0e9);
+		this.unsendableQueue = node.getUnsendableQueue();
+		this.reputation = new ReputationTable((long) (configServer.getReputationHalfLife() * 1.0e9),
+				configServer.getReputationThreshold());
+		if (tunnelPolicy == TunnelPolicy.IBR) {
+			introductions = new IntroductionAgent(this, configServer.getIntroducer(),
+					new IntroductionCache(configServer.getIntroductionCacheSize(),
+							(long) (configServer.getIntroductionCacheTTL() * 1.0e9)),
+					(long) (configServer.getIntroductionTimeout() * 1.0e9));
+			if (introductions.isIntroducer()) {
+				// An introducer must hear from every host
+				tunnelPolicy = TunnelPolicy.OPEN;
+			} else {
+				tunnels.pin(introductions.getIntroducer(), 0);
+			}
+		}
+		Simulation.addHost(this);
+		this.applications = new HashMap<CommsPort, Application>();
+		this.configure(configServer);
+	}
+
+	private void configure(ApplicationConfigurationServer configServer) {
+		String[] appnames = configServer.getApplicationTypes(addr);
+		if (Trace.isEnabled(Trace.Category.HOST, Trace.Level.DEBUG)) {
+			Trace.debug(Trace.Category.HOST, this + " in configure, we have " + appnames.length + " apps.");
+		}
+		for (String name : appnames) {
+			addApplication(new Application(this, name, configServer));
+		}
+		String attackType = configServer.getAttackType(addr);
+		if (attackType != null && configServer.isTrafficGenerator(attackType)) {
+			// A corrupted host runs an attack flow beside its applications
+			addApplication(new Application(this, attackType, configServer));
+		}
+	}
+
+	private void addApplication(Application app) {
+		CommsPort cport = app.getCommsPort();
+		applications.put(cport, app);
+		if (cport instanceof SimCommsPort) {
+			// Ports on a real network receive from their own sockets
+			mysocks.put((SimCommsPort) cport);
+		}
+	}
+
+	/**
+	 * Send a message over this host's link. The link model decides when the
+	 * message reaches its destination; the message itself is the event that
+	 * delivers it.
+	 */
+	public void send(Message msg) {
+		int dst = msg.getDstIPv4();
+		long now = Simulation.getElapsedNanos();
+		Tunnel tunnel = admit(dst, true, now);
+		if (tunnel == null) {
+			if (tunnelPolicy == TunnelPolicy.IBR && unsendableQueue != null) {
+				hold(msg, now);
+			} else {
+				discard(msg);
+			}
+			if (tunnelPolicy == TunnelPolicy.IBR && !reputation.isDistrusted(dst, now)) {
+				// Only now that the message is held may the introduction complete
+				introductions.introduce(dst, now);
+			}
+			return;
+		}
+		Host dstHost = Simulation.getHost(dst);
+		SimulationMessage smsg = (SimulationMessage) msg;
+		long delay = dstHost == null ? -1 : Simulation.getLinkModel().transmit(this, dstHost, smsg, now);
+		if (delay < 0) {
+			discard(msg);
+			return;
+		}
+		tunnel.sent(smsg.getPackets(), now);
+		MESSAGES_SENT.incrementAndGet(this);
+		PACKETS_SENT.addAndGet(this, smsg.getPackets());
+		Simulation.send(smsg, dstHost, delay);
+	}
+
+	void receive(Message msg) {
+		long now = Simulation.getElapsedNanos();
+		Tunnel tunnel = admit(msg.getSrcIPv4(), false, now);
+		if (tunnel == null) {
+			discard(msg);
+			return;
+		}
+		int packets = ((SimulationMessage) msg).getPackets();
+		tunnel.received(packets, now);
+		MESSAGES_RECEIVED.incrementAndGet(this);
+		PACKETS_RECEIVED.addAndGet(this, packets);
+		if (introductions != null && ((SimulationMessage) msg).getType() == SimulationMessage.Type.INTRODUCTION) {
+			introductions.receive((SimulationMessage) msg);
+			return;
+		}
+		int port = msg.getDstPort();
+		SimCommsPort cport = mysocks.get(port);
+		if (cport != null) {
+			cport.deliver(msg);
+		} else {
+			discard(msg);
+		}
+	}
+
+	/**
+	 * Find the tunnel to a peer, creating one if the tunnel policy allows it.
+	 *
+	 * @return the tunnel, or null if messages to and from the peer are not
+	 *         admitted
+	 */
+	private Tunnel admit(int peer, boolean outgoing, long now) {
+		Tunnel tunnel = tunnels.get(peer);
+		if (tunnel != null) {
+			return tunnel;
+		}
+		if (reputation.isDistrusted(peer, now)) {
+			return null;
+		}
+		switch (tunnelPolicy) {
+		case OPEN:
+			return openTunnel(peer);
+		case IBR:
+			return outgoing ? introductions.admitOutgoing(peer, now) : introductions.admitIncoming(peer, now);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Hold a message until an introduction to its destination completes.
+	 */
+	private void hold(Message msg, long now) {
+		if (!unsendableQueue.add(msg, now)) {
+			discard(msg);
+			return;
+		}
+		if (pendingSweepScheduled.compareAndSet(false, true)) {
+			Simulation.schedule(new PendingSweep(), unsendableQueue.getTimeoutNanos());
+		}
+	}
+
+	/**
+	 * A tunnel to a peer has been opened by introduction; send, in order, the
+	 * messages that were waiting for it.
+	 */
+	void flushPending(int peer) {
+		if (unsendableQueue == null || unsendableQueue.size() == 0) {
+			return;
+		}
+		for (Message msg : unsendableQueue.flush(peer, Simulation.getElapsedNanos())) {
+			send(msg);
+		}
+	}
+
+	/**
+	 * An introduction to a peer has been denied; drop the messages that were
+	 * waiting for it.
+	 */
+	void discardPending(int peer) {
+		if (unsendableQueue == null || unsendableQueue.size() == 0) {
+			return;
+		}
+		for (Message msg : unsendableQueue.discard(peer)) {
+			discard(msg);
+		}
+	}
+
+	/**
+	 * Record an application's judgement of a message from a peer. When the
+	 * feedback makes the peer distrusted, the tunnel to it is torn down and
+	 * any cached introduction forgotten, and no new tunnel is admitted until
+	 * its bad behavior has decayed.
+	 */
+	public void feedback(int peer, boolean good) {
+		if (!reputation.feedback(peer, good, Simulation.getElapsedNanos())) {
+			return;
+		}
+		distrusts.incrementAndGet();
+		closeTunnel(peer);
+		if (introductions != null) {
+			introductions.getCache().remove(peer);
+		}
+		if (Trace.isEnabled(Trace.Category.TUNNEL, Trace.Level.INFO)) {
+			Trace.info(Trace.Category.TUNNEL, this + " distrusts " + IPv4.toString(peer) + "; tunnel torn down");
+		}
+	}
+
+	public ReputationTable getReputation() {
+		return reputation;
+	}
+
+	/**
+	 * @return the number of times that a peer has become distrusted
+	 */
+	public int getDistrustCount() {
+		return distrusts.get();
+	}
+
+	/**
+	 * Get the tunnel to a peer, creating it if there is none.
+	 */
+	public Tunnel openTunnel(int peer) {
+		Tunnel tunnel = tunnels.open(peer, Simulation.getElapsedNanos());
+		if (tunnelIdleNanos > 0 && sweepScheduled.compareAndSet(false, true)) {
+			Simulation.schedule(new TunnelSweep(), tunnelIdleNanos);
+		}
+		return tunnel;
+	}
+
+	public Tunnel closeTunnel(int peer) {
+		return tunnels.close(peer);
+	}
+
+	/**
+	 * @return this host's introduction agent, or null if tunnels are not
+	 *         created by introduction
+	 */
+	public IntroductionAgent getIntroductionAgent() {
+		return introductions;
+	}
+
+	/**
+	 * @return the messages waiting for introductions to their destinations
+	 */
+	public UnsendableQueue getUnsendableQueue() {
+		return unsendableQueue;
+	}
+
+	public TunnelTable getTunnels() {
+		return tunnels;
+	}
+
+	/**
+	 * Periodically tear down the tunnels that have been idle for too long.
+	 * The sweep runs only while the host has tunnels.
+	 */
+	private class TunnelSweep extends Event {
+
+		@Override
+		public void fire() {
+			for (Tunnel t : tunnels.expire(Simulation.getElapsedNanos() - tunnelIdleNanos)) {
+				if (Trace.isEnabled(Trace.Category.TUNNEL, Trace.Level.DEBUG)) {
+					Trace.debug(Trace.Category.TUNNEL, Host.this + " tunnel to " + t.getHostAddress() + " expired");
+				}
+			}
+			if (tunnels.unpinnedSize() > 0) {
+				Simulation.schedule(this, tunnelIdleNanos);
+			} else {
+				sweepScheduled.set(false);
+			}
+		}
+
+	}
+
+	/**
+	 * Periodically drop the messages that have waited too long for an
+	 * introduction. The sweep runs only while messages are waiting.
+	 */
+	private class PendingSweep extends Event {
+
+		@Override
+		public void fire() {
+			for (Message msg : unsendableQueue.expire(Simulation.getElapsedNanos())) {
+				discard(msg);
+			}
+			if (unsendableQueue.size() > 0) {
+				Simulation.schedule(this, unsendableQueue.getTimeoutNanos());
+			} else {
+				pendingSweepScheduled.set(false);
+				// A message may have been held since the size was read
+				if (unsendableQueue.size() > 0 && pendingSweepScheduled.compareAndSet(false, true)) {
+					Simulation.schedule(this, unsendableQueue.getTimeoutNanos());
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Dispose of a message that will not be delivered.
+	 */
+	private void discard(Message msg) {
+		MESSAGES_DROPPED.incrementAndGet(this);
+		if (msg instanceof SimulationMessage) {
+			PACKETS_DROPPED.addAndGet(this, ((SimulationMessage) msg).getPackets());
+			Trace.message(Trace.Kind.DROP, ipv4, 0, (SimulationMessage) msg);
+			((SimulationMessage) msg).recycle();
+		}
+	}
+
+	/**
+	 * @return the messages this host has put on its link
+	 */
+	public long getMessagesSent() {
+		return messagesSent;
+	}
+
+	/**
+	 * @return the messages that have reached this host through a tunnel
+	 */
+	public long getMessagesReceived() {
+		return messagesReceived;
+	}
+
+	/**
+	 * @return the messages this host has discarded, not counting those
+	 *         discarded by the queues of its ports
+	 */
+	public long getMessagesDropped() {
+		return messagesDropped;
+	}
+
+	public long getPacketsSent() {
+		return packetsSent;
+	}
+
+	public long getPacketsReceived() {
+		return packetsReceived;
+	}
+
+	public long getPacketsDropped() {
+		return packetsDropped;
+	}
+
+	public Collection<Application> getApplications() {
+		return applications.values();
+	}
+
+	public InetAddress getAddr() {
+		return addr;
+	}
+
+	/**
+	 * @return this host's address, packed as by {@link IPv4#pack(InetAddress)}
+	 */
+	public int getIPv4() {
+		return ipv4;
+	}
+
+	/**
+	 * @return the state of this host's outgoing link, for the link model
+	 */
+	public Link getLink() {
+		return link;
+	}
+
+	public int getPartition() {
+		return partition;
+	}
+
+	void setPartition(int partition) {
+		this.partition = partition;
+	}
+
+	public IdAllocator getIdAllocator() {
+		return idAllocator;
+	}
+
+	/**
+	 * @return a new random stream, independent of every other stream, for the
+	 *         exclusive use of one of this host's components
+	 */
+	public SplittableRandom splitRandom() {
+		return random.split();
+	}
+
+	public CommsPort getEtherealPort() {
+		int port = nextEtherealPort.getAndIncrement();
+		return ComponentFactory.createCommsPort(addr, port);
+	}
+
+	public void simulate() {
+		if (Trace.isEnabled(Trace.Category.HOST, Trace.Level.DEBUG)) {
+			Trace.debug(Trace.Category.HOST, this + " is beginning simulation");
+		}
+		for (Application a : applications.values()) {
+			a.begin();
+		}
+	}
+
+	public static String ipstrip(String ipaddr) {
+		int i = ipaddr.indexOf('/');
+		if (i >= 0) {
+			return ipaddr.substring(i + 1);
+		}
+		return ipaddr;
+	}
+
+	public String toString() {
+		return ipstrip(addr.toString());
+	}
+
+}
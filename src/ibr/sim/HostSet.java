@@ -0,0 +1,180 @@
+package ibr.sim;
+
+import java.util.Arrays;
+
+/**
+ * A set of hosts, each with an int tag, kept as a sorted array of packed
+ * addresses and a parallel array of tags. Membership is a binary search, and
+ * a million hosts take 8 MB. Building the set from a {@link HostSpec} is a
+ * single sort; adding or removing a host afterwards copies the arrays, so
+ * the set suits a topology that is built once and seldom changed.
+ *
+ * @author glfrazier
+ *
+ */
+public class HostSet {
+
+	/**
+	 * Addresses are stored with the sign bit flipped, so that signed order is
+	 * the unsigned order of the addresses.
+	 */
+	private int[] keys;
+
+	private int[] tags;
+
+	private int size;
+
+	public HostSet() {
+		this.keys = new int[0];
+		this.tags = new int[0];
+	}
+
+	/**
+	 * Create the set of every address in a spec, each with the tag 0.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the spec covers more addresses than an array can hold
+	 */
+	public HostSet(HostSpec spec) {
+		if (spec.size() > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many hosts in " + spec);
+		}
+		int[] a = new int[(int) spec.size()];
+		int n = 0;
+		boolean sorted = true;
+		for (int r = 0; r < spec.getRangeCount(); r++) {
+			int lo = spec.getLow(r) ^ Integer.MIN_VALUE;
+			int hi = spec.getHigh(r) ^ Integer.MIN_VALUE;
+			if (n > 0 && lo <= a[n - 1]) {
+				sorted = false;
+			}
+			for (int k = lo;; k++) {
+				a[n++] = k;
+				if (k == hi) {
+					break;
+				}
+			}
+		}
+		if (!sorted) {
+			Arrays.sort(a, 0, n);
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				if (m == 0 || a[i] != a[m - 1]) {
+					a[m++] = a[i];
+				}
+			}
+			n = m;
+		}
+		this.keys = n == a.length ? a : Arrays.copyOf(a, n);
+		this.tags = new int[n];
+		this.size = n;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the packed address of the i'th host, in address order
+	 */
+	public int get(int i) {
+		return keys[i] ^ Integer.MIN_VALUE;
+	}
+
+	public int getTag(int i) {
+		return tags[i];
+	}
+
+	public void setTag(int i, int tag) {
+		tags[i] = tag;
+	}
+
+	/**
+	 * @return the index of the host, or a negative number if it is not in the
+	 *         set
+	 */
+	public int indexOf(int addr) {
+		return Arrays.binarySearch(keys, 0, size, addr ^ Integer.MIN_VALUE);
+	}
+
+	public boolean contains(int addr) {
+		return indexOf(addr) >= 0;
+	}
+
+	/**
+	 * @return the index of the first host whose address is at least
+	 *         <code>addr</code>, or {@link #size()} if there is none
+	 */
+	public int ceilingIndex(int addr) {
+		int i = indexOf(addr);
+		return i >= 0 ? i : -i - 1;
+	}
+
+	/**
+	 * Set the tag of every host in the spec.
+	 *
+	 * @return the number of hosts tagged
+	 */
+	public int tagAll(HostSpec spec, int tag) {
+		int n = 0;
+		for (int r = 0; r < spec.getRangeCount(); r++) {
+			int hi = spec.getHigh(r) ^ Integer.MIN_VALUE;
+			for (int i = ceilingIndex(spec.getLow(r)); i < size && keys[i] <= hi; i++) {
+				tags[i] = tag;
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Add a host, or change its tag if it is already in the set.
+	 *
+	 * @return the host's index
+	 */
+	public int put(int addr, int tag) {
+		int i = indexOf(addr);
+		if (i >= 0) {
+			tags[i] = tag;
+			return i;
+		}
+		i = -i - 1;
+		if (size == keys.length) {
+			int capacity = Math.max(8, size + (size >> 1));
+			keys = Arrays.copyOf(keys, capacity);
+			tags = Arrays.copyOf(tags, capacity);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(tags, i, tags, i + 1, size - i);
+		keys[i] = addr ^ Integer.MIN_VALUE;
+		tags[i] = tag;
+		size++;
+		return i;
+	}
+
+	/**
+	 * @return true if the host was in the set
+	 */
+	public boolean remove(int addr) {
+		int i = indexOf(addr);
+		if (i < 0) {
+			return false;
+		}
+		System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+		System.arraycopy(tags, i + 1, tags, i, size - i - 1);
+		size--;
+		return true;
+	}
+
+	/**
+	 * @return the packed addresses of the hosts, in address order
+	 */
+	public int[] toArray() {
+		int[] a = new int[size];
+		for (int i = 0; i < size; i++) {
+			a[i] = keys[i] ^ Integer.MIN_VALUE;
+		}
+		return a;
+	}
+
+}
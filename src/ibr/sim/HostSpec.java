@@ -0,0 +1,163 @@
+package ibr.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ibr.core.IPv4;
+
+/**
+ * A set of addresses, given as a comma-separated list of any of:
+ *
+ * <pre>
+ * 10.0.0.7              a single address
+ * 10.0.0.0/12           a CIDR block
+ * 10.0.0.10-10.0.3.200  a range of addresses
+ * 10.0.1-3.1-254        a range of values in any octet
+ * </pre>
+ *
+ * All ranges include both bounds. The set is kept as a list of ranges of
+ * packed addresses, so a spec covering millions of addresses takes a few
+ * bytes.
+ *
+ * @author glfrazier
+ *
+ */
+public class HostSpec {
+
+	private final String text;
+
+	private final int[] lo;
+
+	private final int[] hi;
+
+	private final long size;
+
+	private HostSpec(String text, List<int[]> ranges) {
+		this.text = text;
+		this.lo = new int[ranges.size()];
+		this.hi = new int[ranges.size()];
+		long n = 0;
+		for (int i = 0; i < lo.length; i++) {
+			lo[i] = ranges.get(i)[0];
+			hi[i] = ranges.get(i)[1];
+			n += Integer.toUnsignedLong(hi[i]) - Integer.toUnsignedLong(lo[i]) + 1;
+		}
+		this.size = n;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the text is not a host spec
+	 */
+	public static HostSpec parse(String text) {
+		List<int[]> ranges = new ArrayList<>();
+		for (String part : text.split(",")) {
+			part = part.trim();
+			if (part.isEmpty()) {
+				continue;
+			}
+			int slash = part.indexOf('/');
+			int dash = part.indexOf('-');
+			if (slash >= 0) {
+				int addr = IPv4.parse(part.substring(0, slash));
+				int bits = Integer.parseInt(part.substring(slash + 1));
+				if (bits < 0 || bits > 32) {
+					throw new IllegalArgumentException("Bad prefix length in " + part);
+				}
+				int mask = bits == 0 ? 0 : -1 << (32 - bits);
+				ranges.add(new int[] { addr & mask, addr | ~mask });
+			} else if (dash >= 0 && isQuad(part.substring(0, dash)) && isQuad(part.substring(dash + 1))) {
+				int first = IPv4.parse(part.substring(0, dash).trim());
+				int last = IPv4.parse(part.substring(dash + 1).trim());
+				if (Integer.compareUnsigned(first, last) > 0) {
+					throw new IllegalArgumentException("Empty range " + part);
+				}
+				ranges.add(new int[] { first, last });
+			} else {
+				addOctetRanges(part, ranges);
+			}
+		}
+		return new HostSpec(text, ranges);
+	}
+
+	/**
+	 * @return whether the text is a whole dotted-quad address, rather than
+	 *         one side of an octet range
+	 */
+	private static boolean isQuad(String s) {
+		return s.indexOf('-') < 0 && s.trim().split("\\.", -1).length == 4;
+	}
+
+	/**
+	 * Expand a spec with a range in any octet, such as 10.0.1-3.1-254, into
+	 * one range of addresses per value of the first three octets.
+	 */
+	private static void addOctetRanges(String part, List<int[]> ranges) {
+		String[] quad = part.split("\\.");
+		if (quad.length != 4) {
+			throw new IllegalArgumentException("Not a host spec: " + part);
+		}
+		int[] first = new int[4];
+		int[] last = new int[4];
+		for (int i = 0; i < 4; i++) {
+			String[] limits = quad[i].split("-");
+			if (limits.length > 2) {
+				throw new IllegalArgumentException("Not a host spec: " + part);
+			}
+			first[i] = Integer.parseInt(limits[0].trim());
+			last[i] = limits.length == 2 ? Integer.parseInt(limits[1].trim()) : first[i];
+			if (first[i] < 0 || last[i] > 255 || first[i] > last[i]) {
+				throw new IllegalArgumentException("Bad octet range " + quad[i] + " in " + part);
+			}
+		}
+		for (int a = first[0]; a <= last[0]; a++) {
+			for (int b = first[1]; b <= last[1]; b++) {
+				for (int c = first[2]; c <= last[2]; c++) {
+					ranges.add(new int[] { IPv4.pack(a, b, c, first[3]), IPv4.pack(a, b, c, last[3]) });
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of ranges of which the spec is made
+	 */
+	public int getRangeCount() {
+		return lo.length;
+	}
+
+	/**
+	 * @return the first address of range i
+	 */
+	public int getLow(int i) {
+		return lo[i];
+	}
+
+	/**
+	 * @return the last address of range i
+	 */
+	public int getHigh(int i) {
+		return hi[i];
+	}
+
+	/**
+	 * @return the number of addresses covered, counting overlaps twice
+	 */
+	public long size() {
+		return size;
+	}
+
+	public boolean contains(int addr) {
+		for (int i = 0; i < lo.length; i++) {
+			if (Integer.compareUnsigned(addr, lo[i]) >= 0 && Integer.compareUnsigned(addr, hi[i]) <= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String toString() {
+		return text;
+	}
+
+}
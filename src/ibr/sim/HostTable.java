@@ -0,0 +1,122 @@
+package ibr.sim;
+
+import ibr.core.IPv4;
+
+/**
+ * An open-addressing map from packed IPv4 addresses to hosts. Looking up a
+ * host neither hashes an InetAddress nor boxes its key, and the table costs
+ * two array slots per host rather than a map entry object.
+ * <p>
+ * The table is populated while the simulation is set up and only read once it
+ * is running.
+ *
+ * @author glfrazier
+ *
+ */
+public class HostTable {
+
+	private int[] keys;
+
+	private Host[] values;
+
+	private int size;
+
+	public HostTable() {
+		this(16);
+	}
+
+	public HostTable(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+		keys = new int[capacity];
+		values = new Host[capacity];
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	public Host get(int addr) {
+		int mask = keys.length - 1;
+		int i = hash(addr) & mask;
+		Host h;
+		while ((h = values[i]) != null) {
+			if (keys[i] == addr) {
+				return h;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public void put(int addr, Host host) {
+		if (host == null) {
+			throw new IllegalArgumentException("host == null");
+		}
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		if (insert(keys, values, addr, host)) {
+			size++;
+		}
+	}
+
+	private static boolean insert(int[] keys, Host[] values, int addr, Host host) {
+		int mask = keys.length - 1;
+		int i = hash(addr) & mask;
+		while (values[i] != null) {
+			if (keys[i] == addr) {
+				values[i] = host;
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = addr;
+		values[i] = host;
+		return true;
+	}
+
+	private void resize(int capacity) {
+		int[] newKeys = new int[capacity];
+		Host[] newValues = new Host[capacity];
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				insert(newKeys, newValues, keys[i], values[i]);
+			}
+		}
+		keys = newKeys;
+		values = newValues;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the hosts, in table order
+	 */
+	public Host[] values() {
+		Host[] result = new Host[size];
+		int n = 0;
+		for (Host h : values) {
+			if (h != null) {
+				result[n++] = h;
+			}
+		}
+		return result;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				if (sb.length() > 1) {
+					sb.append(", ");
+				}
+				sb.append(IPv4.toString(keys[i]));
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+}
@@ -0,0 +1,85 @@
+package ibr.sim;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ibr.core.IPv4;
+
+/**
+ * Allocates message IDs for one host. An ID is the host's packed address in
+ * the upper 32 bits and a per-host sequence number in the lower 32 bits, so
+ * IDs from different hosts never collide and no two hosts share any state.
+ * <p>
+ * Within a host, sequence numbers are handed out in blocks: each sender owns
+ * an {@link IdBlock} and touches the host's shared counter only once per
+ * {@link #BLOCK_SIZE} IDs. In discrete-event mode the blocks are claimed in
+ * event order, so a given seed and schedule always produce the same IDs.
+ *
+ * @author glfrazier
+ *
+ */
+public class IdAllocator {
+
+	public static final int BLOCK_SIZE = 1024;
+
+	private final long prefix;
+
+	private final AtomicInteger nextBlock = new AtomicInteger();
+
+	public IdAllocator(int hostAddr) {
+		this.prefix = ((long) hostAddr) << 32;
+	}
+
+	/**
+	 * @return a new source of IDs, to be used by a single thread
+	 */
+	public IdBlock newBlock() {
+		return new IdBlock(this);
+	}
+
+	/**
+	 * @return the first ID of a fresh block
+	 */
+	long claimBlock() {
+		long block = nextBlock.getAndIncrement() & 0xffffffffL;
+		long first = block * BLOCK_SIZE;
+		if (first + BLOCK_SIZE > 0x100000000L) {
+			throw new IllegalStateException("Host " + IPv4.toString((int) (prefix >>> 32)) + " has exhausted its message IDs");
+		}
+		return prefix | first;
+	}
+
+	/**
+	 * @return a printable form of an ID: the address of the host that
+	 *         allocated it and its sequence number
+	 */
+	public static String toString(long id) {
+		return IPv4.toString((int) (id >>> 32)) + "#" + (id & 0xffffffffL);
+	}
+
+	/**
+	 * A block of IDs owned by one sender, refilled from its host's allocator
+	 * when it runs out.
+	 */
+	public static class IdBlock {
+
+		private final IdAllocator allocator;
+
+		private long next;
+
+		private long limit;
+
+		private IdBlock(IdAllocator allocator) {
+			this.allocator = allocator;
+		}
+
+		public long nextId() {
+			if (next == limit) {
+				next = allocator.claimBlock();
+				limit = next + BLOCK_SIZE;
+			}
+			return next++;
+		}
+
+	}
+
+}
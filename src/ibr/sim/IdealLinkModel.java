@@ -0,0 +1,21 @@
+package ibr.sim;
+
+/**
+ * Links with no latency and unlimited bandwidth: every message arrives the
+ * instant it is sent.
+ *
+ * @author glfrazier
+ *
+ */
+public class IdealLinkModel implements LinkModel {
+
+	@Override
+	public long transmit(Host src, Host dst, SimulationMessage msg, long now) {
+		return 0;
+	}
+
+	public String toString() {
+		return "IdealLinkModel";
+	}
+
+}
@@ -0,0 +1,255 @@
+package ibr.sim;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ibr.core.IPv4;
+
+/**
+ * A host's part in introduction-based routing. A host may only exchange
+ * messages with a peer to which it has a tunnel, and it gets a tunnel by
+ * being introduced:
+ *
+ * <pre>
+ * A -> I : REQUEST (subject B)   A asks its introducer for an introduction
+ * I -> B : OFFER   (subject A)   I offers A to B
+ * B -> I : ACCEPT  (subject A)   B opens a tunnel to A and accepts
+ * I -> A : ACCEPT  (subject B)   A opens a tunnel to B
+ * </pre>
+ *
+ * B may answer with DENY instead, which I relays to A. Every host has a
+ * permanent tunnel to the introducer, and the introducer admits control
+ * messages from every host.
+ * <p>
+ * Completed introductions are kept in an {@link IntroductionCache}, so that
+ * when an idle tunnel has been torn down, the next flow between the same pair
+ * re-opens it at once. The agent counts handshakes, their latency and cache
+ * hits, from which the simulation reports the handshake time that the cache
+ * saved.
+ * <p>
+ * While an introduction is under way, the host holds the messages for the
+ * peer in its {@link ibr.core.UnsendableQueue}; they are sent when the
+ * introduction is accepted and dropped when it is denied.
+ * <p>
+ * The agent's lock guards only its own state: messages are built under it
+ * and sent after it is released. In real-time mode a message may be delivered
+ * on the sending thread, so a host that sent while holding its lock could
+ * deadlock against a peer doing the same.
+ *
+ * @author glfrazier
+ *
+ */
+public class IntroductionAgent {
+
+	/**
+	 * The port to which introduction messages are addressed. Hosts intercept
+	 * them before port lookup, so no application may use it.
+	 */
+	public static final int PORT = 0;
+
+	private final Host host;
+
+	private final int introducer;
+
+	private final IntroductionCache cache;
+
+	private final long timeoutNanos;
+
+	/**
+	 * Peers to which an introduction has been requested, and when.
+	 */
+	private final Map<Integer, Long> pending = new HashMap<>();
+
+	private final IdAllocator.IdBlock ids;
+
+	private long requested;
+
+	private long completed;
+
+	private long denied;
+
+	private long handshakeNanos;
+
+	private long cacheHits;
+
+	public IntroductionAgent(Host host, int introducer, IntroductionCache cache, long timeoutNanos) {
+		this.host = host;
+		this.introducer = introducer;
+		this.cache = cache;
+		this.timeoutNanos = timeoutNanos;
+		this.ids = host.getIdAllocator().newBlock();
+	}
+
+	public boolean isIntroducer() {
+		return host.getIPv4() == introducer;
+	}
+
+	public int getIntroducer() {
+		return introducer;
+	}
+
+	/**
+	 * The host has a message for a peer to which it has no tunnel. Re-open the
+	 * tunnel from the cache if possible.
+	 *
+	 * @return the tunnel, or null if the message cannot be sent yet; the host
+	 *         then holds the message and calls {@link #introduce(int, long)}
+	 */
+	synchronized Tunnel admitOutgoing(int peer, long now) {
+		if (cache.contains(peer, now)) {
+			cacheHits++;
+			return host.openTunnel(peer);
+		}
+		return null;
+	}
+
+	/**
+	 * Request an introduction to a peer for which the host is holding
+	 * messages, unless a request is already under way. The host holds the
+	 * messages first, since the introduction may complete before this
+	 * returns.
+	 */
+	void introduce(int peer, long now) {
+		SimulationMessage request;
+		synchronized (this) {
+			Long since = pending.get(peer);
+			if (since != null && now - since <= timeoutNanos) {
+				return;
+			}
+			pending.put(peer, now);
+			requested++;
+			request = message(SimulationMessage.Role.REQUEST, introducer, peer, 0);
+		}
+		host.send(request);
+	}
+
+	/**
+	 * A message has arrived from a peer to which the host has no tunnel. Admit
+	 * it only if the host has a cached introduction to the peer.
+	 *
+	 * @return the tunnel, or null if the message must be dropped
+	 */
+	synchronized Tunnel admitIncoming(int peer, long now) {
+		if (cache.contains(peer, now)) {
+			cacheHits++;
+			return host.openTunnel(peer);
+		}
+		return null;
+	}
+
+	/**
+	 * Handle an introduction message addressed to this host.
+	 */
+	void receive(SimulationMessage msg) {
+		int from = msg.getSrcIPv4();
+		int subject = msg.getSubject();
+		long now = Simulation.getElapsedNanos();
+		SimulationMessage reply = null;
+		boolean answered = false;
+		synchronized (this) {
+			switch (msg.getRole()) {
+			case REQUEST:
+				// We are the introducer; offer the requester to the subject
+				reply = message(SimulationMessage.Role.OFFER, subject, from, msg.getId());
+				break;
+			case OFFER:
+				if (accept(subject)) {
+					host.openTunnel(subject);
+					cache.put(subject, now);
+					reply = message(SimulationMessage.Role.ACCEPT, from, subject, msg.getInResponseTo());
+				} else {
+					reply = message(SimulationMessage.Role.DENY, from, subject, msg.getInResponseTo());
+				}
+				break;
+			case ACCEPT:
+			case DENY:
+				if (isIntroducer()) {
+					// Relay the target's answer to the requester
+					reply = message(msg.getRole(), subject, from, msg.getInResponseTo());
+					break;
+				}
+				answered = true;
+				Long since = pending.remove(subject);
+				if (msg.getRole() == SimulationMessage.Role.ACCEPT) {
+					host.openTunnel(subject);
+					cache.put(subject, now);
+					if (since != null) {
+						completed++;
+						handshakeNanos += now - since;
+					}
+				} else {
+					denied++;
+				}
+				if (Trace.isEnabled(Trace.Category.TUNNEL, Trace.Level.DEBUG)) {
+					Trace.debug(Trace.Category.TUNNEL, host + " introduction to " + IPv4.toString(subject) + ": "
+							+ msg.getRole());
+				}
+				break;
+			default:
+			}
+		}
+		if (reply != null) {
+			host.send(reply);
+		} else if (answered) {
+			if (msg.getRole() == SimulationMessage.Role.ACCEPT) {
+				host.flushPending(subject);
+			} else {
+				host.discardPending(subject);
+			}
+		}
+		msg.recycle();
+	}
+
+	/**
+	 * Decide whether to accept an introduction to a peer: a host accepts any
+	 * peer that it does not distrust.
+	 */
+	protected boolean accept(int peer) {
+		return !host.getReputation().isDistrusted(peer, Simulation.getElapsedNanos());
+	}
+
+	/**
+	 * Build an introduction message; called under the agent's lock, which
+	 * guards its IDs.
+	 */
+	private SimulationMessage message(SimulationMessage.Role role, int dst, int subject, long inResponseTo) {
+		SimulationMessage msg = SimulationMessage.obtain(ids.nextId(), role, SimulationMessage.Type.INTRODUCTION,
+				host.getIPv4(), dst, PORT, PORT);
+		msg.setSubject(subject);
+		msg.setInResponseTo(inResponseTo);
+		return msg;
+	}
+
+	public synchronized long getRequestCount() {
+		return requested;
+	}
+
+	public synchronized long getCompletedCount() {
+		return completed;
+	}
+
+	public synchronized long getDeniedCount() {
+		return denied;
+	}
+
+	/**
+	 * @return the total time, in nanoseconds, of the handshakes this host has
+	 *         completed as a requester
+	 */
+	public synchronized long getHandshakeNanos() {
+		return handshakeNanos;
+	}
+
+	/**
+	 * @return the number of tunnels re-opened from the cache, without a
+	 *         handshake
+	 */
+	public synchronized long getCacheHits() {
+		return cacheHits;
+	}
+
+	public IntroductionCache getCache() {
+		return cache;
+	}
+
+}
@@ -0,0 +1,68 @@
+package ibr.sim;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The introductions a host has completed, so that a later flow to the same
+ * peer can re-open its tunnel without another handshake. Entries expire a
+ * fixed time after the introduction completed; when the cache is full, the
+ * least recently used entry is evicted.
+ *
+ * @author glfrazier
+ *
+ */
+public class IntroductionCache {
+
+	private final int capacity;
+
+	private final long ttlNanos;
+
+	/**
+	 * Peer address to the simulated time at which its introduction expires,
+	 * in access order.
+	 */
+	private final LinkedHashMap<Integer, Long> entries;
+
+	@SuppressWarnings("serial")
+	public IntroductionCache(int capacity, long ttlNanos) {
+		this.capacity = capacity;
+		this.ttlNanos = ttlNanos;
+		this.entries = new LinkedHashMap<Integer, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+				return size() > IntroductionCache.this.capacity;
+			}
+		};
+	}
+
+	public synchronized void put(int peer, long now) {
+		if (capacity > 0 && ttlNanos > 0) {
+			entries.put(peer, now + ttlNanos);
+		}
+	}
+
+	/**
+	 * @return true if there is an unexpired introduction to the peer
+	 */
+	public synchronized boolean contains(int peer, long now) {
+		Long expiry = entries.get(peer);
+		if (expiry == null) {
+			return false;
+		}
+		if (expiry <= now) {
+			entries.remove(peer);
+			return false;
+		}
+		return true;
+	}
+
+	public synchronized void remove(int peer) {
+		entries.remove(peer);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+}
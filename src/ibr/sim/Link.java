@@ -0,0 +1,34 @@
+package ibr.sim;
+
+/**
+ * The state of a host's outgoing link: when the link finishes sending what it
+ * has already accepted, and how many packets it has discarded.
+ *
+ * @author glfrazier
+ *
+ */
+public class Link {
+
+	long busyUntil;
+
+	long packetsSent;
+
+	long packetsDropped;
+
+	public synchronized long getPacketsSent() {
+		return packetsSent;
+	}
+
+	public synchronized long getPacketsDropped() {
+		return packetsDropped;
+	}
+
+	/**
+	 * @return the simulated time, in nanoseconds, at which the link will have
+	 *         finished sending every packet it has accepted
+	 */
+	public synchronized long getBusyUntil() {
+		return busyUntil;
+	}
+
+}
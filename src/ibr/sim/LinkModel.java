@@ -0,0 +1,47 @@
+package ibr.sim;
+
+import java.util.Properties;
+
+/**
+ * How long a message takes to travel from one host to another. The model
+ * sees every message as it is sent and decides when it will arrive, or that
+ * it will be lost.
+ * <p>
+ * Implementations named by the <code>link.model</code> property must have a
+ * public no-argument constructor; they are then given the simulation's
+ * properties through {@link #configure(Properties)}.
+ *
+ * @author glfrazier
+ *
+ */
+public interface LinkModel {
+
+	/**
+	 * Send a message over the link from one host to another.
+	 *
+	 * @param src
+	 *            the sending host
+	 * @param dst
+	 *            the receiving host
+	 * @param msg
+	 *            the message
+	 * @param now
+	 *            the current simulated time, in nanoseconds
+	 * @return the nanoseconds until the message arrives at dst, or -1 if the
+	 *         message is lost
+	 */
+	public long transmit(Host src, Host dst, SimulationMessage msg, long now);
+
+	public default void configure(Properties props) {
+	}
+
+	/**
+	 * @return the shortest time, in nanoseconds, that any message spends in
+	 *         transit; this is the lookahead of a partitioned simulation (see
+	 *         {@link ParallelEngine})
+	 */
+	public default long getMinimumDelay() {
+		return 0;
+	}
+
+}
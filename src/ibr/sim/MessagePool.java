@@ -0,0 +1,67 @@
+package ibr.sim;
+
+import java.util.ArrayDeque;
+
+/**
+ * Per-thread free lists of {@link SimulationMessage}s. Pooling is off unless
+ * {@link #setCapacity(int)} is given a positive capacity, in which case each
+ * thread keeps up to that many recycled messages for reuse.
+ * <p>
+ * In discrete-event mode every message is created and consumed on the one
+ * simulation thread, so nearly every message is reused. In real-time mode a
+ * message is usually consumed on a different thread from the one that created
+ * it; the bound on each free list keeps the receiving threads' pools from
+ * growing without limit.
+ *
+ * @author glfrazier
+ *
+ */
+public class MessagePool {
+
+	private static int capacity = 0;
+
+	private static final ThreadLocal<ArrayDeque<SimulationMessage>> POOL = new ThreadLocal<ArrayDeque<SimulationMessage>>() {
+		@Override
+		protected ArrayDeque<SimulationMessage> initialValue() {
+			return new ArrayDeque<>();
+		}
+	};
+
+	private MessagePool() {
+	}
+
+	/**
+	 * @param capacity
+	 *            the most messages that each thread keeps for reuse; 0
+	 *            disables pooling
+	 */
+	public static void setCapacity(int capacity) {
+		MessagePool.capacity = capacity;
+	}
+
+	public static int getCapacity() {
+		return capacity;
+	}
+
+	static SimulationMessage take() {
+		if (capacity > 0) {
+			SimulationMessage msg = POOL.get().poll();
+			if (msg != null) {
+				return msg;
+			}
+		}
+		return new SimulationMessage();
+	}
+
+	static void give(SimulationMessage msg) {
+		if (capacity <= 0) {
+			return;
+		}
+		ArrayDeque<SimulationMessage> pool = POOL.get();
+		if (pool.size() < capacity) {
+			msg.clear();
+			pool.push(msg);
+		}
+	}
+
+}
@@ -0,0 +1,272 @@
+package ibr.sim;
+
+import java.util.Collection;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ibr.core.Message;
+
+/**
+ * The bounded queue of messages waiting at a port. The queue is an array
+ * ring that grows on demand up to its capacity; what happens to a message
+ * that arrives at a full (or, for RED, a congested) queue is set by its
+ * {@link Policy}. Every message the queue discards is counted.
+ *
+ * @author glfrazier
+ *
+ */
+public class MessageQueue {
+
+	/**
+	 * <code>TAIL_DROP</code> discards the arriving message when the queue is
+	 * full. <code>HEAD_DROP</code> discards the oldest waiting message to make
+	 * room for it. <code>RED</code> (random early detection) discards arriving
+	 * messages with a probability that rises with the average queue length, and
+	 * tail-drops when the queue is full.
+	 */
+	public enum Policy {
+		TAIL_DROP, HEAD_DROP, RED
+	};
+
+	private static final int INITIAL_SIZE = 16;
+
+	private final int capacity;
+
+	private final Policy policy;
+
+	private Message[] ring;
+
+	private int head;
+
+	private int size;
+
+	private long drops;
+
+	private int maxSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private double minThreshold;
+
+	private double maxThreshold;
+
+	private double maxProbability;
+
+	private double weight;
+
+	private double average;
+
+	private SplittableRandom random;
+
+	public MessageQueue(int capacity, Policy policy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity <= 0: " + capacity);
+		}
+		if (policy == Policy.RED) {
+			throw new IllegalArgumentException("Use the RED constructor for a RED queue");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.ring = new Message[Math.min(capacity, INITIAL_SIZE)];
+	}
+
+	/**
+	 * Create a queue that uses random early detection.
+	 *
+	 * @param capacity
+	 *            the most messages the queue holds
+	 * @param minThreshold
+	 *            the average length below which no message is dropped
+	 * @param maxThreshold
+	 *            the average length above which every message is dropped
+	 * @param maxProbability
+	 *            the drop probability as the average approaches maxThreshold
+	 * @param weight
+	 *            the weight of the current length in the moving average
+	 * @param random
+	 *            the stream from which drop decisions are drawn
+	 */
+	public MessageQueue(int capacity, double minThreshold, double maxThreshold, double maxProbability, double weight,
+			SplittableRandom random) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity <= 0: " + capacity);
+		}
+		if (!(minThreshold < maxThreshold)) {
+			throw new IllegalArgumentException("RED requires minThreshold < maxThreshold");
+		}
+		this.capacity = capacity;
+		this.policy = Policy.RED;
+		this.ring = new Message[Math.min(capacity, INITIAL_SIZE)];
+		this.minThreshold = minThreshold;
+		this.maxThreshold = maxThreshold;
+		this.maxProbability = maxProbability;
+		this.weight = weight;
+		this.random = random;
+	}
+
+	/**
+	 * Add a message to the tail of the queue, unless the policy decides to
+	 * discard a message instead.
+	 *
+	 * @return the message that was discarded (the arriving message or, for
+	 *         <code>HEAD_DROP</code>, the oldest waiting message), or null if
+	 *         no message was discarded
+	 */
+	public Message offer(Message m) {
+		if (m instanceof SimulationMessage && !Simulation.isDiscreteEvent()) {
+			// A message in a real-time run is never scheduled; stamp it with
+			// its arrival, so that its wait in the queue can be measured
+			((SimulationMessage) m).time = Simulation.getElapsedNanos();
+		}
+		lock.lock();
+		try {
+			Message dropped = null;
+			if (policy == Policy.RED) {
+				average = (1 - weight) * average + weight * size;
+				if (average >= maxThreshold) {
+					dropped = m;
+				} else if (average > minThreshold) {
+					double p = maxProbability * (average - minThreshold) / (maxThreshold - minThreshold);
+					if (random.nextDouble() < p) {
+						dropped = m;
+					}
+				}
+			}
+			if (dropped == null && size == capacity) {
+				if (policy == Policy.HEAD_DROP) {
+					dropped = ring[head];
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					size--;
+				} else {
+					dropped = m;
+				}
+			}
+			if (dropped != null) {
+				drops++;
+			}
+			if (dropped != m) {
+				if (size == ring.length) {
+					grow();
+				}
+				ring[(head + size) % ring.length] = m;
+				size++;
+				if (size > maxSize) {
+					maxSize = size;
+				}
+				notEmpty.signal();
+			}
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void grow() {
+		Message[] a = new Message[(int) Math.min((long) ring.length * 2, capacity)];
+		for (int i = 0; i < size; i++) {
+			a[i] = ring[(head + i) % ring.length];
+		}
+		ring = a;
+		head = 0;
+	}
+
+	/**
+	 * @return the message at the head of the queue, or null if it is empty
+	 */
+	public Message poll() {
+		lock.lock();
+		try {
+			return size == 0 ? null : remove();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait for a message and remove it from the head of the queue.
+	 */
+	public Message take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (size == 0) {
+				notEmpty.await();
+			}
+			return remove();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Move up to <code>max</code> messages from the head of the queue into a
+	 * collection, taking the lock once.
+	 *
+	 * @return the number of messages moved
+	 */
+	public int drainTo(Collection<? super Message> c, int max) {
+		lock.lock();
+		try {
+			int n = Math.min(size, max);
+			for (int i = 0; i < n; i++) {
+				c.add(remove());
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Message remove() {
+		Message m = ring[head];
+		ring[head] = null;
+		head = (head + 1) % ring.length;
+		size--;
+		return m;
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the most messages that have waited in the queue at once
+	 */
+	public int getMaxSize() {
+		lock.lock();
+		try {
+			return maxSize;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the number of messages that this queue has discarded
+	 */
+	public long getDropCount() {
+		lock.lock();
+		try {
+			return drops;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,493 @@
+package ibr.sim;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import ibr.core.CommsPort;
+
+/**
+ * Counters and latency histograms for the whole run. Every application type
+ * has its own {@link Counters}, shared by all of the applications of that
+ * type; the counters are {@link LongAdder}s and {@link Histogram}s, so the
+ * threads of a real-time run or of a partitioned simulation update them
+ * without locking.
+ * <p>
+ * Snapshots are written every <code>metrics.interval</code> seconds of
+ * simulated time (of wall time in real-time mode) to
+ * <code>metrics.file</code>, as CSV or as one JSON object per line
+ * (<code>metrics.format</code>), and once more at the end of the run. Each
+ * snapshot has a row for every application type and a row, <code>all</code>,
+ * for the hosts as a whole. Throughput (messages received per second) and
+ * the utilization of servers' workers are over the interval since the
+ * previous snapshot; everything else is since the start of the run. The
+ * queue depths, tunnel counts and outstanding requests in a row are sampled
+ * when the snapshot is taken; in a partitioned simulation, the other
+ * partitions may be a little ahead of or behind that time.
+ *
+ * @author glfrazier
+ *
+ */
+public class Metrics {
+
+	public enum Format {
+		CSV, JSON
+	};
+
+	private static final String[] COLUMNS = { "sent", "received", "dropped", "throughput", "rtt_count",
+			"rtt_mean_ms", "rtt_p50_ms", "rtt_p90_ms", "rtt_p99_ms", "rtt_p999_ms", "rtt_max_ms", "queue_depth",
+			"queue_max", "tunnels", "tunnels_max", "packets_sent", "packets_received", "packets_dropped", "served",
+			"utilization", "wait_mean_ms", "wait_p99_ms", "outstanding", "timeouts", "retries", "failed", "late" };
+
+	private static final Map<String, Counters> counters = new LinkedHashMap<>();
+
+	/**
+	 * Round trip times of every application type.
+	 */
+	private static final Histogram allRtt = new Histogram();
+
+	private static Writer out;
+
+	private static boolean stdout;
+
+	private static Format format = Format.CSV;
+
+	private static long intervalNanos;
+
+	/**
+	 * The messages received by each row, and the time its workers were busy,
+	 * as of the previous snapshot, from which the throughput and utilization
+	 * are computed.
+	 */
+	private static final Map<String, long[]> last = new LinkedHashMap<>();
+
+	private static long lastTime;
+
+	private Metrics() {
+	}
+
+	/**
+	 * Configure the export of snapshots from the simulation's properties. No
+	 * snapshots are written unless <code>metrics.file</code> is set; "-" is
+	 * standard output. A format or interval that cannot be parsed is reported
+	 * and its default used; a file that cannot be opened is reported and no
+	 * snapshots are written.
+	 */
+	public static synchronized void configure(Properties props) {
+		close();
+		String file = props.getProperty("metrics.file");
+		if (file == null || file.trim().isEmpty()) {
+			return;
+		}
+		file = file.trim();
+		format = Format.CSV;
+		try {
+			format = Format.valueOf(props.getProperty("metrics.format", "csv").trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			Trace.error(Trace.Category.CONFIG, "Failure to parse property metrics.format: " + e);
+		}
+		intervalNanos = 10000000000L;
+		try {
+			double interval = Double.parseDouble(props.getProperty("metrics.interval", "10").trim());
+			if (!(interval >= 0)) {
+				throw new IllegalArgumentException("metrics.interval < 0: " + interval);
+			}
+			intervalNanos = (long) (interval * 1.0e9);
+		} catch (IllegalArgumentException e) {
+			Trace.error(Trace.Category.CONFIG, "Failure to parse property metrics.interval: " + e);
+		}
+		try {
+			OutputStream os = file.equals("-") ? System.out : new FileOutputStream(file);
+			stdout = os == System.out;
+			out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+			if (format == Format.CSV) {
+				out.write("time,scope," + String.join(",", COLUMNS) + "\n");
+			}
+		} catch (IOException e) {
+			Trace.error(Trace.Category.CONFIG, "Failure to open metrics.file; no metrics will be written: " + e);
+			out = null;
+		}
+	}
+
+	/**
+	 * @return the counters of an application type, created on first use
+	 */
+	public static synchronized Counters forType(String type) {
+		return counters.computeIfAbsent(type, (t) -> new Counters());
+	}
+
+	/**
+	 * Begin writing periodic snapshots, if an interval has been configured.
+	 */
+	public static synchronized void start() {
+		if (out != null && intervalNanos > 0) {
+			Simulation.schedule(new ExportEvent(), intervalNanos);
+		}
+	}
+
+	/**
+	 * Write the final snapshot and close the metrics file.
+	 */
+	public static synchronized void close() {
+		if (out == null) {
+			return;
+		}
+		try {
+			long now = Simulation.getElapsedNanos();
+			if (now != lastTime || last.isEmpty()) {
+				export(now);
+			}
+			if (stdout) {
+				out.flush();
+			} else {
+				out.close();
+			}
+		} catch (IOException e) {
+			Trace.error(Trace.Category.SIMULATION, "Failure to write metrics: " + e);
+		}
+		out = null;
+	}
+
+	/**
+	 * @return the round trip times of all application types
+	 */
+	public static Histogram getRoundTripTimes() {
+		return allRtt;
+	}
+
+	/**
+	 * @return the counters of every application type, by type
+	 */
+	static synchronized Map<String, Counters> getCounters() {
+		return new LinkedHashMap<>(counters);
+	}
+
+	/**
+	 * Summarize the round trip times of the run.
+	 */
+	static String summarize() {
+		Histogram.Snapshot s = allRtt.snapshot();
+		return s.getCount() + " round trips; mean " + millis(s.getMean()) + " ms, p50 "
+				+ millis(s.getPercentile(50)) + " ms, p99 " + millis(s.getPercentile(99)) + " ms, max "
+				+ millis(s.getMax()) + " ms";
+	}
+
+	private static synchronized void export(long now) throws IOException {
+		if (out == null) {
+			return;
+		}
+		Map<String, double[]> rows = new LinkedHashMap<>();
+		Map<String, long[]> busy = new LinkedHashMap<>();
+		long allBusy = 0, allWorkers = 0;
+		double[] all = new double[COLUMNS.length];
+		for (Map.Entry<String, Counters> e : counters.entrySet()) {
+			Counters c = e.getValue();
+			rows.put(e.getKey(), c.sample());
+			busy.put(e.getKey(), new long[] { c.busyNanos.sum(), c.workers.sum() });
+			allBusy += c.busyNanos.sum();
+			allWorkers += c.workers.sum();
+			all[18] += c.served.sum();
+			all[23] += c.timeouts.sum();
+			all[24] += c.retries.sum();
+			all[25] += c.failed.sum();
+			all[26] += c.late.sum();
+		}
+		busy.put("all", new long[] { allBusy, allWorkers });
+		Histogram.Snapshot rtt = allRtt.snapshot();
+		setRtt(all, rtt);
+		for (Host h : Simulation.getHosts()) {
+			all[0] += h.getMessagesSent();
+			all[1] += h.getMessagesReceived();
+			all[2] += h.getMessagesDropped();
+			all[15] += h.getPacketsSent();
+			all[16] += h.getPacketsReceived();
+			all[17] += h.getPacketsDropped();
+			int tunnels = h.getTunnels().size();
+			all[13] += tunnels;
+			all[14] = Math.max(all[14], tunnels);
+			for (Application a : h.getApplications()) {
+				int outstanding = a.getOutstandingCount();
+				double[] row = rows.get(a.getType());
+				if (row != null) {
+					row[22] += outstanding;
+				}
+				all[22] += outstanding;
+				CommsPort cport = a.getCommsPort();
+				if (!(cport instanceof SimCommsPort)) {
+					continue;
+				}
+				MessageQueue q = ((SimCommsPort) cport).getQueue();
+				int depth = q.size();
+				long drops = q.getDropCount();
+				int max = q.getMaxSize();
+				if (row != null) {
+					row[2] += drops;
+					row[11] += depth;
+					row[12] = Math.max(row[12], max);
+				}
+				all[2] += drops;
+				all[11] += depth;
+				all[12] = Math.max(all[12], max);
+			}
+		}
+		rows.put("all", all);
+		double seconds = (now - lastTime) / 1.0e9;
+		for (Map.Entry<String, double[]> e : rows.entrySet()) {
+			double[] row = e.getValue();
+			long received = (long) row[1];
+			long[] b = busy.get(e.getKey());
+			long[] previous = last.put(e.getKey(), new long[] { received, b[0] });
+			if (previous == null) {
+				previous = new long[2];
+			}
+			if (seconds > 0) {
+				row[3] = Math.round((received - previous[0]) / seconds * 1000) / 1000.0;
+				if (b[1] > 0) {
+					row[19] = Math.round((b[0] - previous[1]) / 1.0e9 / (seconds * b[1]) * 1000) / 1000.0;
+				}
+			}
+		}
+		lastTime = now;
+		write(now / 1.0e9, rows);
+	}
+
+	private static void write(double time, Map<String, double[]> rows) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		if (format == Format.CSV) {
+			for (Map.Entry<String, double[]> e : rows.entrySet()) {
+				sb.append(time).append(',').append(e.getKey());
+				for (double v : e.getValue()) {
+					sb.append(',').append(format(v));
+				}
+				sb.append('\n');
+			}
+		} else {
+			sb.append("{\"time\":").append(time);
+			for (Map.Entry<String, double[]> e : rows.entrySet()) {
+				sb.append(",\"").append(e.getKey()).append("\":{");
+				double[] row = e.getValue();
+				for (int i = 0; i < row.length; i++) {
+					sb.append(i == 0 ? "\"" : ",\"").append(COLUMNS[i]).append("\":").append(format(row[i]));
+				}
+				sb.append('}');
+			}
+			sb.append("}\n");
+		}
+		out.write(sb.toString());
+		out.flush();
+	}
+
+	private static String format(double v) {
+		return v == Math.rint(v) && Math.abs(v) < 1e15 ? Long.toString((long) v) : Double.toString(v);
+	}
+
+	private static double millis(double nanos) {
+		return Math.round(nanos / 1.0e3) / 1.0e3;
+	}
+
+	private static void setRtt(double[] row, Histogram.Snapshot s) {
+		row[4] = s.getCount();
+		row[5] = millis(s.getMean());
+		row[6] = millis(s.getPercentile(50));
+		row[7] = millis(s.getPercentile(90));
+		row[8] = millis(s.getPercentile(99));
+		row[9] = millis(s.getPercentile(99.9));
+		row[10] = millis(s.getMax());
+	}
+
+	/**
+	 * The counters shared by the applications of one type.
+	 */
+	public static class Counters {
+
+		private final LongAdder sent = new LongAdder();
+
+		private final LongAdder received = new LongAdder();
+
+		private final LongAdder packetsSent = new LongAdder();
+
+		private final LongAdder packetsReceived = new LongAdder();
+
+		/**
+		 * For servers with a service-time model: how many workers they have
+		 * in all, how many messages they have served, for how long, and how
+		 * long the messages waited for a worker.
+		 */
+		private final LongAdder workers = new LongAdder();
+
+		private final LongAdder served = new LongAdder();
+
+		private final LongAdder busyNanos = new LongAdder();
+
+		private final Histogram wait = new Histogram();
+
+		private final Histogram rtt = new Histogram();
+
+		/**
+		 * For clients: requests that went unanswered for their timeout, those
+		 * sent again, those given up on, and responses that arrived after
+		 * their request had timed out.
+		 */
+		private final LongAdder timeouts = new LongAdder();
+
+		private final LongAdder retries = new LongAdder();
+
+		private final LongAdder failed = new LongAdder();
+
+		private final LongAdder late = new LongAdder();
+
+		private Counters() {
+		}
+
+		/**
+		 * Count a message sent, and the packets it stands for.
+		 */
+		public void sent(int packets) {
+			sent.increment();
+			packetsSent.add(packets);
+		}
+
+		public void received(int packets) {
+			received.increment();
+			packetsReceived.add(packets);
+		}
+
+		void addWorkers(int n) {
+			workers.add(n);
+		}
+
+		/**
+		 * Record the time that a message waited in a server's queue before a
+		 * worker took it.
+		 */
+		public void waited(long nanos) {
+			wait.record(nanos);
+		}
+
+		/**
+		 * Record a message served, and the time a worker spent on it.
+		 */
+		public void served(long nanos) {
+			served.increment();
+			busyNanos.add(nanos);
+		}
+
+		public long getWorkers() {
+			return workers.sum();
+		}
+
+		public long getServed() {
+			return served.sum();
+		}
+
+		public long getBusyNanos() {
+			return busyNanos.sum();
+		}
+
+		public Histogram getWaitTimes() {
+			return wait;
+		}
+
+		/**
+		 * Record the time from a request to its response.
+		 */
+		public void roundTrip(long nanos) {
+			rtt.record(nanos);
+			allRtt.record(nanos);
+		}
+
+		public void timedOut() {
+			timeouts.increment();
+		}
+
+		public void retried() {
+			retries.increment();
+		}
+
+		public void failed() {
+			failed.increment();
+		}
+
+		public void late() {
+			late.increment();
+		}
+
+		public long getTimeouts() {
+			return timeouts.sum();
+		}
+
+		public long getRetries() {
+			return retries.sum();
+		}
+
+		public long getFailed() {
+			return failed.sum();
+		}
+
+		public long getLate() {
+			return late.sum();
+		}
+
+		public long getSent() {
+			return sent.sum();
+		}
+
+		public long getReceived() {
+			return received.sum();
+		}
+
+		public Histogram getRoundTripTimes() {
+			return rtt;
+		}
+
+		private double[] sample() {
+			double[] row = new double[COLUMNS.length];
+			row[0] = sent.sum();
+			row[1] = received.sum();
+			row[15] = packetsSent.sum();
+			row[16] = packetsReceived.sum();
+			row[18] = served.sum();
+			Histogram.Snapshot w = wait.snapshot();
+			row[20] = millis(w.getMean());
+			row[21] = millis(w.getPercentile(99));
+			row[23] = timeouts.sum();
+			row[24] = retries.sum();
+			row[25] = failed.sum();
+			row[26] = late.sum();
+			setRtt(row, rtt.snapshot());
+			return row;
+		}
+
+	}
+
+	/**
+	 * Writes a snapshot and schedules the next.
+	 */
+	private static class ExportEvent extends Event {
+
+		@Override
+		public void fire() {
+			if (!Simulation.isRunning()) {
+				return;
+			}
+			try {
+				export(Simulation.getElapsedNanos());
+			} catch (IOException e) {
+				Trace.error(Trace.Category.SIMULATION, "Failure to write metrics: " + e);
+				return;
+			}
+			Simulation.schedule(this, intervalNanos);
+		}
+
+	}
+
+}
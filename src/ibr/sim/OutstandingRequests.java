@@ -0,0 +1,154 @@
+package ibr.sim;
+
+/**
+ * The requests that an application has sent and that have not yet been
+ * answered, keyed by request ID. The table is open-addressed, with linear
+ * probing, and grows as needed, so adding and removing a request take
+ * constant time however many are in flight. Each request is also a
+ * {@link TimerWheel.Timeout}, so its expiry costs nothing per request beyond
+ * its place in a wheel bucket.
+ * <p>
+ * The table is not synchronized; the application that owns it locks it.
+ *
+ * @author glfrazier
+ *
+ */
+public class OutstandingRequests {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * A request in flight: enough to time its response and to send it again.
+	 */
+	public abstract static class Request extends TimerWheel.Timeout {
+
+		long id;
+
+		int dst;
+
+		int packets;
+
+		/**
+		 * When this attempt, and the first attempt, were sent.
+		 */
+		long sent;
+
+		long firstSent;
+
+		int attempts;
+
+		public long getId() {
+			return id;
+		}
+
+		public int getDst() {
+			return dst;
+		}
+
+		public int getPackets() {
+			return packets;
+		}
+
+		public long getSent() {
+			return sent;
+		}
+
+		public long getFirstSent() {
+			return firstSent;
+		}
+
+		/**
+		 * @return the number of times this request has been sent
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+
+	}
+
+	private Request[] table = new Request[INITIAL_CAPACITY];
+
+	private int size;
+
+	private static int hash(long id) {
+		long h = id * 0x9e3779b97f4a7c15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add a request, replacing any with the same ID.
+	 */
+	public void put(Request r) {
+		if ((size + 1) * 4 > table.length * 3) {
+			resize(table.length * 2);
+		}
+		int mask = table.length - 1;
+		for (int i = hash(r.id) & mask;; i = (i + 1) & mask) {
+			Request e = table[i];
+			if (e == null) {
+				table[i] = r;
+				size++;
+				return;
+			}
+			if (e.id == r.id) {
+				table[i] = r;
+				return;
+			}
+		}
+	}
+
+	public Request get(long id) {
+		int mask = table.length - 1;
+		for (int i = hash(id) & mask;; i = (i + 1) & mask) {
+			Request e = table[i];
+			if (e == null || e.id == id) {
+				return e;
+			}
+		}
+	}
+
+	/**
+	 * Remove a request, closing the gap that it leaves in its run of probes.
+	 *
+	 * @return the request, or null if there is none with the ID
+	 */
+	public Request remove(long id) {
+		int mask = table.length - 1;
+		int i = hash(id) & mask;
+		while (table[i] != null && table[i].id != id) {
+			i = (i + 1) & mask;
+		}
+		Request r = table[i];
+		if (r == null) {
+			return null;
+		}
+		table[i] = null;
+		size--;
+		// Move back any later entry of the run that may no longer be found
+		for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+			int home = hash(table[j].id) & mask;
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				table[i] = table[j];
+				table[j] = null;
+				i = j;
+			}
+		}
+		return r;
+	}
+
+	private void resize(int capacity) {
+		Request[] old = table;
+		table = new Request[capacity];
+		size = 0;
+		for (Request r : old) {
+			if (r != null) {
+				put(r);
+			}
+		}
+	}
+
+}
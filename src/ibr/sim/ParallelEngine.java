@@ -0,0 +1,243 @@
+package ibr.sim;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Runs a discrete-event simulation on several threads. The hosts are divided
+ * among {@link Partition}s, each with its own event queue and worker thread.
+ * <p>
+ * Partitions advance together in windows of simulated time, synchronized
+ * conservatively. Every message takes at least the link model's minimum
+ * delay, the <i>lookahead</i>, to arrive. So if the earliest pending event
+ * anywhere is at time T, no message sent from T on can arrive before
+ * T + lookahead. Each window fires, in every partition at once, the events
+ * before T + lookahead. Messages to other partitions are left in outboxes,
+ * and each partition takes its messages from them after the window, in
+ * partition order. No locks are taken: the barrier between windows is the
+ * only synchronization. For a given number of partitions, a seed gives the
+ * same run every time.
+ * <p>
+ * Speedup depends on how many events each window holds, and on balance: a
+ * window lasts as long as its busiest partition. The per-partition counts of
+ * busy and waiting time show where imbalance limits the speedup.
+ *
+ * @author glfrazier
+ *
+ */
+public class ParallelEngine {
+
+	private static final ThreadLocal<Partition> CURRENT = new ThreadLocal<>();
+
+	private final Partition[] partitions;
+
+	private final long lookahead;
+
+	private long endTime;
+
+	private long windowEnd;
+
+	private boolean done;
+
+	/**
+	 * Whether the partitions are firing the events of a window, rather than
+	 * collecting their messages. The barrier action runs at the end of both.
+	 */
+	private boolean inWindow;
+
+	private long windows;
+
+	private final CyclicBarrier barrier;
+
+	/**
+	 * The first exception thrown by an event in any partition, rethrown by
+	 * {@link #run(long)}.
+	 */
+	private Throwable failure;
+
+	/**
+	 * @param count
+	 *            the number of partitions
+	 * @param lookahead
+	 *            the shortest delay of any message, in nanoseconds; > 0
+	 */
+	public ParallelEngine(int count, long lookahead) {
+		if (count < 1 || lookahead <= 0) {
+			throw new IllegalArgumentException("count = " + count + ", lookahead = " + lookahead);
+		}
+		this.lookahead = lookahead;
+		this.partitions = new Partition[count];
+		for (int i = 0; i < count; i++) {
+			partitions[i] = new Partition(i, count);
+		}
+		this.barrier = new CyclicBarrier(count, this::nextWindow);
+	}
+
+	public Partition[] getPartitions() {
+		return partitions;
+	}
+
+	public Partition getPartition(int i) {
+		return partitions[i];
+	}
+
+	/**
+	 * @return the partition whose events the calling thread fires, or null
+	 */
+	public static Partition current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Make the calling thread act for a partition; used while the hosts are
+	 * set up, so that their first events go on their own partitions' queues.
+	 */
+	public static void setCurrent(Partition p) {
+		CURRENT.set(p);
+	}
+
+	/**
+	 * Deliver a message to a host after a delay: on this partition's queue if
+	 * the host is in it, otherwise through an outbox.
+	 */
+	void send(SimulationMessage msg, Host dst, long delayNanos) {
+		Partition p = CURRENT.get();
+		long time = p.scheduler.now() + delayNanos;
+		if (dst.getPartition() == p.getIndex()) {
+			p.scheduler.scheduleAt(msg, time);
+			return;
+		}
+		if (delayNanos < lookahead) {
+			throw new IllegalStateException("A delay of " + delayNanos + " ns is shorter than the lookahead");
+		}
+		msg.time = time;
+		p.post(dst.getPartition(), msg);
+	}
+
+	/**
+	 * @return the latest time that any partition has reached
+	 */
+	public long now() {
+		long t = 0;
+		for (Partition p : partitions) {
+			t = Math.max(t, p.scheduler.now());
+		}
+		return t;
+	}
+
+	public long getEventCount() {
+		long n = 0;
+		for (Partition p : partitions) {
+			n += p.getEventCount();
+		}
+		return n;
+	}
+
+	public long getWindowCount() {
+		return windows;
+	}
+
+	/**
+	 * Run every partition, each on its own thread, until no event remains
+	 * before the end time or the simulation is terminated. If an event throws,
+	 * every partition stops and the exception is rethrown.
+	 *
+	 * @param endTime
+	 *            the simulated time, in nanoseconds, at which to stop
+	 */
+	public void run(long endTime) throws InterruptedException {
+		this.endTime = endTime;
+		Thread[] workers = new Thread[partitions.length];
+		for (int i = 0; i < partitions.length; i++) {
+			Partition p = partitions[i];
+			workers[i] = new Thread(() -> work(p), "ibr-partition-" + i);
+			workers[i].start();
+		}
+		for (Thread t : workers) {
+			t.join();
+		}
+		Throwable t;
+		synchronized (this) {
+			t = failure;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+	}
+
+	private void work(Partition p) {
+		CURRENT.set(p);
+		try {
+			while (true) {
+				long t0 = System.nanoTime();
+				p.collect(partitions);
+				long t1 = System.nanoTime();
+				barrier.await();
+				long t2 = System.nanoTime();
+				if (done) {
+					p.addBusyNanos(t1 - t0);
+					p.addWaitNanos(t2 - t1);
+					return;
+				}
+				p.scheduler.runUntil(windowEnd);
+				long t3 = System.nanoTime();
+				barrier.await();
+				long t4 = System.nanoTime();
+				p.addBusyNanos(t1 - t0 + t3 - t2);
+				p.addWaitNanos(t2 - t1 + t4 - t3);
+			}
+		} catch (InterruptedException | BrokenBarrierException e) {
+			Simulation.terminate();
+			barrier.reset();
+		} catch (RuntimeException | Error e) {
+			// Break the barrier, so that the other partitions stop too
+			synchronized (this) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+			Simulation.terminate();
+			barrier.reset();
+		}
+	}
+
+	/**
+	 * Run by the last partition to reach the barrier. After the partitions
+	 * have collected their messages, find the earliest pending event and set
+	 * the next window.
+	 */
+	private void nextWindow() {
+		if (inWindow) {
+			inWindow = false;
+			return;
+		}
+		long min = Long.MAX_VALUE;
+		for (Partition p : partitions) {
+			min = Math.min(min, p.scheduler.peekTime());
+		}
+		if (!Simulation.isRunning() || min > endTime) {
+			done = true;
+			return;
+		}
+		windowEnd = Math.min(min + lookahead, endTime + 1);
+		windows++;
+		inWindow = true;
+	}
+
+	/**
+	 * @return the busiest partition's busy time over the mean, 1.0 when the
+	 *         load is perfectly balanced
+	 */
+	public double getImbalance() {
+		long max = 0, total = 0;
+		for (Partition p : partitions) {
+			max = Math.max(max, p.getBusyNanos());
+			total += p.getBusyNanos();
+		}
+		return total == 0 ? 1.0 : (double) max * partitions.length / total;
+	}
+
+}
@@ -0,0 +1,145 @@
+package ibr.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One shard of a partitioned simulation: a set of hosts, the event queue on
+ * which all of their events fire, and outboxes for the messages that its
+ * hosts send to hosts in other partitions. Only the partition's own worker
+ * thread touches its queue and writes its outboxes; the owner of an outbox's
+ * destination empties it between windows, when no partition is firing
+ * events. See {@link ParallelEngine}.
+ *
+ * @author glfrazier
+ *
+ */
+public class Partition {
+
+	private final int index;
+
+	final EventScheduler scheduler = new EventScheduler();
+
+	/**
+	 * The messages for each partition, in the order in which they were sent.
+	 */
+	private final List<List<Event>> outboxes;
+
+	private int hosts;
+
+	private long sent;
+
+	private long received;
+
+	private long busyNanos;
+
+	private long waitNanos;
+
+	/**
+	 * The timeouts of the partition's hosts, created by the first of them.
+	 */
+	private TimerWheel timerWheel;
+
+	Partition(int index, int count) {
+		this.index = index;
+		this.outboxes = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			outboxes.add(new ArrayList<>());
+		}
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	void addHost() {
+		hosts++;
+	}
+
+	/**
+	 * @return the wheel on which the partition's hosts set their timeouts;
+	 *         called only from the partition's own thread
+	 */
+	TimerWheel getTimerWheel() {
+		if (timerWheel == null) {
+			timerWheel = new TimerWheel(Simulation.getTimerTickNanos(), TimerWheel.DEFAULT_SLOTS);
+		}
+		return timerWheel;
+	}
+
+	/**
+	 * Hold an event, whose time has been set, for another partition.
+	 */
+	void post(int dst, Event e) {
+		outboxes.get(dst).add(e);
+		sent++;
+	}
+
+	/**
+	 * Move the events that every partition has posted to this one onto this
+	 * partition's queue. The partitions are visited in index order, so the
+	 * events are queued in the same order in every run.
+	 */
+	void collect(Partition[] partitions) {
+		for (Partition p : partitions) {
+			List<Event> box = p.outboxes.get(index);
+			for (int i = 0; i < box.size(); i++) {
+				Event e = box.get(i);
+				scheduler.scheduleAt(e, e.time);
+			}
+			received += box.size();
+			box.clear();
+		}
+	}
+
+	void addBusyNanos(long nanos) {
+		busyNanos += nanos;
+	}
+
+	void addWaitNanos(long nanos) {
+		waitNanos += nanos;
+	}
+
+	public int getHostCount() {
+		return hosts;
+	}
+
+	public long getEventCount() {
+		return scheduler.getEventCount();
+	}
+
+	/**
+	 * @return the number of messages sent to other partitions
+	 */
+	public long getSentCount() {
+		return sent;
+	}
+
+	/**
+	 * @return the number of messages received from other partitions
+	 */
+	public long getReceivedCount() {
+		return received;
+	}
+
+	/**
+	 * @return the wall-clock time this partition spent firing events
+	 */
+	public long getBusyNanos() {
+		return busyNanos;
+	}
+
+	/**
+	 * @return the wall-clock time this partition spent waiting for the others
+	 */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	public String toString() {
+		return index + ": " + hosts + " hosts, " + getEventCount() + " events, " + sent + " sent, "
+				+ received + " received, busy " + busyNanos / 1000000 + " ms, waiting " + waitNanos / 1000000
+				+ " ms";
+	}
+
+}
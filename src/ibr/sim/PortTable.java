@@ -0,0 +1,94 @@
+package ibr.sim;
+
+import java.util.Arrays;
+
+/**
+ * The ports open on one host. Ethereal ports are handed out sequentially from
+ * a base, so they are kept in a dense array indexed by their offset from the
+ * base. A host listens on only a few fixed ports, so those are kept in a short
+ * array that is searched linearly. Neither lookup boxes the port number.
+ *
+ * @author glfrazier
+ *
+ */
+public class PortTable {
+
+	/**
+	 * The fixed ports and their comms ports, published together so that a
+	 * reader never pairs the numbers of one version with the ports of
+	 * another. Replaced, never modified, by every put.
+	 */
+	private static final class Fixed {
+
+		final int[] ports;
+
+		final SimCommsPort[] cports;
+
+		Fixed(int[] ports, SimCommsPort[] cports) {
+			this.ports = ports;
+			this.cports = cports;
+		}
+
+	}
+
+	private final int etherealBase;
+
+	/**
+	 * Written only under the table's lock; every put ends by writing the
+	 * field, so that a reader that sees a port also sees its array slot.
+	 */
+	private volatile SimCommsPort[] ethereal = new SimCommsPort[2];
+
+	private volatile Fixed fixed = new Fixed(new int[0], new SimCommsPort[0]);
+
+	public PortTable(int etherealBase) {
+		this.etherealBase = etherealBase;
+	}
+
+	public SimCommsPort get(int port) {
+		int i = port - etherealBase;
+		if (i >= 0) {
+			SimCommsPort[] e = ethereal;
+			return i < e.length ? e[i] : null;
+		}
+		Fixed f = fixed;
+		int[] ports = f.ports;
+		for (int j = 0; j < ports.length; j++) {
+			if (ports[j] == port) {
+				return f.cports[j];
+			}
+		}
+		return null;
+	}
+
+	public synchronized void put(SimCommsPort cport) {
+		int port = cport.getPort();
+		int i = port - etherealBase;
+		if (i >= 0) {
+			SimCommsPort[] e = ethereal;
+			if (i >= e.length) {
+				SimCommsPort[] a = new SimCommsPort[Math.max(i + 1, e.length * 2)];
+				System.arraycopy(e, 0, a, 0, e.length);
+				e = a;
+			}
+			e[i] = cport;
+			ethereal = e;
+			return;
+		}
+		Fixed f = fixed;
+		int n = f.ports.length;
+		int j = 0;
+		while (j < n && f.ports[j] != port) {
+			j++;
+		}
+		int[] ports = f.ports;
+		if (j == n) {
+			ports = Arrays.copyOf(ports, n + 1);
+			ports[n] = port;
+		}
+		SimCommsPort[] cports = Arrays.copyOf(f.cports, ports.length);
+		cports[j] = cport;
+		fixed = new Fixed(ports, cports);
+	}
+
+}
@@ -0,0 +1,90 @@
+package ibr.sim;
+
+import java.util.Properties;
+
+/**
+ * Each host has one outgoing link, with a fixed bandwidth, a fixed
+ * propagation delay and a FIFO queue of limited capacity. A message of
+ * <i>n</i> packets occupies the link for <i>n</i> serialization times after
+ * the packets ahead of it have been sent, then arrives one propagation delay
+ * later. A message that would overflow the queue is lost. A message longer
+ * than the whole queue, such as a bulk transfer, is taken to be paced by its
+ * sender, and needs only a queue's worth of room.
+ * <p>
+ * Configured from <code>link.bandwidth</code> (bits per second, default
+ * 100e6), <code>link.delay</code> (seconds, default 0.001),
+ * <code>link.queue</code> (packets, default 1000) and
+ * <code>link.packetSize</code> (bytes, default 1500).
+ *
+ * @author glfrazier
+ *
+ */
+public class QueueingLinkModel implements LinkModel {
+
+	private double bandwidth = 100e6;
+
+	private long propagationNanos = 1000000L;
+
+	private int queueCapacity = 1000;
+
+	private int packetSize = 1500;
+
+	private long packetNanos;
+
+	public QueueingLinkModel() {
+		computePacketTime();
+	}
+
+	public QueueingLinkModel(double bandwidth, double delay, int queueCapacity, int packetSize) {
+		this.bandwidth = bandwidth;
+		this.propagationNanos = (long) (delay * 1.0e9);
+		this.queueCapacity = queueCapacity;
+		this.packetSize = packetSize;
+		computePacketTime();
+	}
+
+	private void computePacketTime() {
+		packetNanos = Math.max(1, (long) (packetSize * 8 * 1.0e9 / bandwidth));
+	}
+
+	@Override
+	public void configure(Properties props) {
+		bandwidth = Double.parseDouble(props.getProperty("link.bandwidth", Double.toString(bandwidth)).trim());
+		propagationNanos = (long) (Double.parseDouble(props.getProperty("link.delay", Double.toString(propagationNanos / 1.0e9)).trim()) * 1.0e9);
+		queueCapacity = Integer.parseInt(props.getProperty("link.queue", Integer.toString(queueCapacity)).trim());
+		packetSize = Integer.parseInt(props.getProperty("link.packetSize", Integer.toString(packetSize)).trim());
+		computePacketTime();
+	}
+
+	@Override
+	public long transmit(Host src, Host dst, SimulationMessage msg, long now) {
+		Link link = src.getLink();
+		int packets = msg.getPackets();
+		synchronized (link) {
+			long start = Math.max(now, link.busyUntil);
+			long backlog = (start - now + packetNanos - 1) / packetNanos;
+			if (backlog + Math.min(packets, queueCapacity) > queueCapacity) {
+				link.packetsDropped += packets;
+				return -1;
+			}
+			link.busyUntil = start + packets * packetNanos;
+			link.packetsSent += packets;
+			return link.busyUntil - now + propagationNanos;
+		}
+	}
+
+	/**
+	 * @return the shortest time, in nanoseconds, that any message spends in
+	 *         transit
+	 */
+	@Override
+	public long getMinimumDelay() {
+		return packetNanos + propagationNanos;
+	}
+
+	public String toString() {
+		return "QueueingLinkModel(" + bandwidth + " b/s, " + propagationNanos + " ns, " + queueCapacity + " packets of "
+				+ packetSize + " bytes)";
+	}
+
+}
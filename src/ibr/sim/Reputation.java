@@ -0,0 +1,89 @@
+package ibr.sim;
+
+/**
+ * What a host thinks of one peer: counts of the good and bad messages it has
+ * received from the peer, each decaying exponentially with time, so that old
+ * behavior is gradually forgotten. Both counts decay at the same rate and are
+ * brought up to date only when they are touched, so recording feedback takes
+ * constant time. Each reputation has its own lock; feedback about different
+ * peers never contends.
+ *
+ * @author glfrazier
+ *
+ */
+public class Reputation {
+
+	private final int peer;
+
+	private double good;
+
+	private double bad;
+
+	private long updated;
+
+	private boolean distrusted;
+
+	Reputation(int peer, long now) {
+		this.peer = peer;
+		this.updated = now;
+	}
+
+	/**
+	 * @return the peer's packed address
+	 */
+	public int getPeer() {
+		return peer;
+	}
+
+	/**
+	 * Record one message from the peer.
+	 *
+	 * @param decayRate
+	 *            the rate, per nanosecond, at which the counts decay
+	 * @param threshold
+	 *            the decayed count of bad messages at which the peer is
+	 *            distrusted, provided that it exceeds the count of good ones
+	 * @return true if this message made the peer distrusted
+	 */
+	synchronized boolean record(boolean isGood, long now, double decayRate, double threshold) {
+		decay(now, decayRate);
+		if (isGood) {
+			good += 1;
+		} else {
+			bad += 1;
+		}
+		boolean was = distrusted;
+		distrusted = bad >= threshold && bad > good;
+		return distrusted && !was;
+	}
+
+	synchronized boolean isDistrusted(long now, double decayRate, double threshold) {
+		decay(now, decayRate);
+		distrusted = bad >= threshold && bad > good;
+		return distrusted;
+	}
+
+	private void decay(long now, double decayRate) {
+		if (now > updated) {
+			double f = Math.exp(-decayRate * (now - updated));
+			good *= f;
+			bad *= f;
+			updated = now;
+		}
+	}
+
+	/**
+	 * @return the decayed count of good messages, as of the last update
+	 */
+	public synchronized double getGood() {
+		return good;
+	}
+
+	/**
+	 * @return the decayed count of bad messages, as of the last update
+	 */
+	public synchronized double getBad() {
+		return bad;
+	}
+
+}
@@ -0,0 +1,139 @@
+package ibr.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A host's {@link Reputation}s of its peers, keyed by the peer's packed
+ * address. Like a {@link TunnelTable}, lookups take no lock; only adding a
+ * peer the host has never heard from is serialized by the table's monitor.
+ * Reputations are never removed, since a peer that is forgotten would be
+ * trusted again; they decay instead.
+ * <p>
+ * A peer is distrusted while its decayed count of bad messages is at least
+ * the threshold and exceeds its decayed count of good ones.
+ *
+ * @author glfrazier
+ *
+ */
+public class ReputationTable {
+
+	private volatile AtomicReferenceArray<Reputation> slots = new AtomicReferenceArray<>(8);
+
+	private int size;
+
+	private final double decayRate;
+
+	private final double threshold;
+
+	/**
+	 * @param halfLifeNanos
+	 *            the time in which feedback loses half its weight
+	 * @param threshold
+	 *            the decayed count of bad messages at which a peer may be
+	 *            distrusted
+	 */
+	public ReputationTable(long halfLifeNanos, double threshold) {
+		this.decayRate = Math.log(2) / halfLifeNanos;
+		this.threshold = threshold;
+	}
+
+	private static int hash(int addr) {
+		int h = addr * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return the host's reputation of the peer, or null if it has had no
+	 *         feedback about the peer
+	 */
+	public Reputation get(int addr) {
+		AtomicReferenceArray<Reputation> a = slots;
+		int mask = a.length() - 1;
+		int i = hash(addr) & mask;
+		Reputation r;
+		while ((r = a.get(i)) != null) {
+			if (r.getPeer() == addr) {
+				return r;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	private synchronized Reputation add(int addr, long now) {
+		Reputation r = get(addr);
+		if (r != null) {
+			return r;
+		}
+		if ((size + 1) * 2 > slots.length()) {
+			rebuild(slots.length() * 2);
+		}
+		r = new Reputation(addr, now);
+		AtomicReferenceArray<Reputation> a = slots;
+		int mask = a.length() - 1;
+		int i = hash(addr) & mask;
+		while (a.get(i) != null) {
+			i = (i + 1) & mask;
+		}
+		a.set(i, r);
+		size++;
+		return r;
+	}
+
+	private void rebuild(int capacity) {
+		AtomicReferenceArray<Reputation> old = slots;
+		AtomicReferenceArray<Reputation> a = new AtomicReferenceArray<>(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < old.length(); j++) {
+			Reputation r = old.get(j);
+			if (r != null) {
+				int i = hash(r.getPeer()) & mask;
+				while (a.get(i) != null) {
+					i = (i + 1) & mask;
+				}
+				a.set(i, r);
+			}
+		}
+		slots = a;
+	}
+
+	/**
+	 * Record that a good or bad message has been received from a peer.
+	 *
+	 * @return true if this feedback made the peer distrusted
+	 */
+	public boolean feedback(int peer, boolean good, long now) {
+		Reputation r = get(peer);
+		if (r == null) {
+			r = add(peer, now);
+		}
+		return r.record(good, now, decayRate, threshold);
+	}
+
+	public boolean isDistrusted(int peer, long now) {
+		Reputation r = get(peer);
+		return r != null && r.isDistrusted(now, decayRate, threshold);
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the peers that are distrusted now
+	 */
+	public List<Reputation> getDistrusted(long now) {
+		List<Reputation> result = new ArrayList<>();
+		AtomicReferenceArray<Reputation> a = slots;
+		for (int i = 0; i < a.length(); i++) {
+			Reputation r = a.get(i);
+			if (r != null && r.isDistrusted(now, decayRate, threshold)) {
+				result.add(r);
+			}
+		}
+		return result;
+	}
+
+}
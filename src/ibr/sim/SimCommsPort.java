@@ -1,45 +1,84 @@
-package ibr.sim;
-
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-
-import ibr.core.CommsPort;
-import ibr.core.Message;
-
-public class SimCommsPort implements CommsPort {
-
-	private int port;
-	private Host host;
-	private BlockingQueue<Message> queue = new LinkedBlockingQueue<Message>();
-
-	public SimCommsPort(Host host, int port) {
-		this.host = host;
-		this.port = port;
-	}
-	
-	@Override
-	public int getPort()
-	{
-		return port;
-	}
-
-	@Override
-	public void sendMsg(Message m) {
-		host.send(m);
-	}
-
-	@Override
-	public Message getNextMsg() throws InterruptedException {
-		return queue.take();
-	}
-	
-	public void deliver(Message m) {
-		queue.offer(m);
-	}
-	
-
-	public String toString() {
-		return host.toString() + ":" + Integer.toString(port);
-	}
-
-}
+package ibr.sim;
+
+import java.util.Collection;
+
+import ibr.core.CommsPort;
+import ibr.core.Message;
+
+public class SimCommsPort implements CommsPort {
+
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	private int port;
+	private Host host;
+	private MessageQueue queue = new MessageQueue(DEFAULT_CAPACITY, MessageQueue.Policy.TAIL_DROP);
+	private Application listener;
+
+	public SimCommsPort(Host host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+	
+	@Override
+	public int getPort()
+	{
+		return port;
+	}
+
+	@Override
+	public void sendMsg(Message m) {
+		host.send(m);
+	}
+
+	@Override
+	public Message getNextMsg() throws InterruptedException {
+		return queue.take();
+	}
+	
+	@Override
+	public Message pollNextMsg() {
+		return queue.poll();
+	}
+
+	@Override
+	public int drainTo(Collection<? super Message> c, int max) {
+		return queue.drainTo(c, max);
+	}
+
+	/**
+	 * In discrete-event mode there is no thread blocked on the queue; instead,
+	 * the listener is told whenever a message is delivered.
+	 */
+	public void setListener(Application listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Replace this port's queue. Must be called before any message is
+	 * delivered to the port.
+	 */
+	public void setQueue(MessageQueue queue) {
+		this.queue = queue;
+	}
+
+	public MessageQueue getQueue() {
+		return queue;
+	}
+
+	public void deliver(Message m) {
+		Message dropped = queue.offer(m);
+		if (dropped instanceof SimulationMessage) {
+			Trace.message(Trace.Kind.DROP, host.getIPv4(), port, (SimulationMessage) dropped);
+			((SimulationMessage) dropped).recycle();
+		}
+		if (dropped != m && listener != null) {
+			listener.messagesAvailable();
+		}
+	}
+	
+
+	public String toString() {
+		return host.toString() + ":" + Integer.toString(port);
+	}
+
+}
@@ -1,65 +1,564 @@
-package ibr.sim;
-
-import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-
-import ibr.core.ComponentFactory;
-import ibr.core.Node;
-
-public class Simulation {
-
-	private static final Random RANDOM = new Random();
-	private static boolean running = true;
-	private static Map<InetAddress, Host> hostMap = new HashMap<>();
-	private static long startTime;
-
-	public static boolean isRunning() {
-		return running;
-	}
-
-	public static void terminate() {
-		running = false;
-	}
-
-	public static Random getRandom() {
-		return RANDOM;
-	}
-
-	public static void addHost(Host h) {
-		System.out.println("Adding " + h + " to the simulation.");
-		hostMap.put(h.getAddr(), h);
-	}
-
-	public static Host getHost(InetAddress addr) {
-		Host h = hostMap.get(addr);
-		return h;
-	}
-
-	public static float getElapsedSeconds() {
-		return ((float) (System.currentTimeMillis() - startTime)) / 1000.0f;
-	}
-
-	public static long getElapsedMillis() {
-		return System.currentTimeMillis() - startTime;
-	}
-
-	public static void main(String[] args) throws UnknownHostException, IOException {
-		ComponentFactory.setContext(ComponentFactory.Context.SIMULATION);
-		String filename = args[0];
-		ApplicationConfigurationServer config = new ApplicationConfigurationServer(filename);
-		for (InetAddress addr : config.getHostAddrs()) {
-			Node node = new Node();
-			Host h = new Host(addr, node, config);
-			hostMap.put(addr, h);
-		}
-		startTime = System.currentTimeMillis();
-		for (Host h : hostMap.values()) {
-			h.simulate();
-		}
-	}
-
-}
+package ibr.sim;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ibr.core.ComponentFactory;
+import ibr.core.IPv4;
+import ibr.core.Node;
+import ibr.core.UnsendableQueue;
+
+public class Simulation {
+
+	/**
+	 * How the simulation advances time. In <code>DISCRETE</code> mode a single
+	 * thread fires events from an {@link EventScheduler} against a virtual
+	 * clock. In <code>REALTIME</code> mode every application runs its own
+	 * threads, paced by the wall clock.
+	 */
+	public enum Mode {
+		DISCRETE, REALTIME
+	};
+
+	/**
+	 * What runs the client, server and receiver loops of applications in
+	 * <code>REALTIME</code> mode. <code>PLATFORM</code> gives each loop its
+	 * own kernel thread; <code>VIRTUAL</code> runs each loop in a virtual
+	 * thread, so that large topologies need only a handful of carrier threads.
+	 */
+	public enum Threads {
+		PLATFORM, VIRTUAL
+	};
+
+	private static long seed = System.nanoTime();
+	private static boolean running = true;
+	private static HostTable hostMap = new HostTable();
+	private static long startTime;
+	/**
+	 * The nanoTime at which a real-time run started; 0 until then, so it is
+	 * set with its low bit on.
+	 */
+	private static long startNanos;
+	private static Mode mode = Mode.DISCRETE;
+	private static EventScheduler scheduler = new EventScheduler();
+	private static Executor executor;
+	private static ScheduledExecutorService timer;
+	private static LinkModel linkModel = new IdealLinkModel();
+	private static ParallelEngine engine;
+	private static long timerTickNanos = TimerWheel.DEFAULT_TICK_NANOS;
+	private static TimerWheel timerWheel;
+
+	public static boolean isRunning() {
+		return running;
+	}
+
+	public static void terminate() {
+		running = false;
+	}
+
+	/**
+	 * Set the master seed from which every random stream in the simulation is
+	 * derived. A given seed produces the same traffic in every discrete-event
+	 * run.
+	 */
+	public static void setSeed(long seed) {
+		Simulation.seed = seed;
+	}
+
+	public static long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Derive an independent random stream from the master seed. Each stream is
+	 * identified by a key, such as a host's address, so that the stream does
+	 * not depend on the order in which the streams are created.
+	 *
+	 * @param key
+	 *            distinguishes this stream from every other stream
+	 * @return a generator for the exclusive use of one thread
+	 */
+	public static SplittableRandom newRandom(long key) {
+		return new SplittableRandom(seed ^ (key * 0x9e3779b97f4a7c15L));
+	}
+
+	public static Mode getMode() {
+		return mode;
+	}
+
+	public static boolean isDiscreteEvent() {
+		return mode == Mode.DISCRETE;
+	}
+
+	public static EventScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Schedule an event. In discrete-event mode the event goes on the event
+	 * queue; in real-time mode an event with no delay fires immediately, on
+	 * the calling thread, and any other event fires on a timer thread.
+	 */
+	public static void schedule(Event e, long delayNanos) {
+		if (mode == Mode.DISCRETE) {
+			if (engine != null) {
+				ParallelEngine.current().scheduler.schedule(e, delayNanos);
+			} else {
+				scheduler.schedule(e, delayNanos);
+			}
+		} else if (delayNanos == 0) {
+			e.fire();
+		} else {
+			getTimer().schedule(e::fire, delayNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Deliver a message to its destination host after a delay. In a
+	 * partitioned simulation, a message to a host in another partition goes
+	 * through that partition's mailbox.
+	 */
+	static void send(SimulationMessage msg, Host dst, long delayNanos) {
+		if (engine != null) {
+			engine.send(msg, dst, delayNanos);
+		} else {
+			schedule(msg, delayNanos);
+		}
+	}
+
+	/**
+	 * @return the engine of a partitioned simulation, or null if the
+	 *         simulation is not partitioned
+	 */
+	public static ParallelEngine getEngine() {
+		return engine;
+	}
+
+	public static long getTimerTickNanos() {
+		return timerTickNanos;
+	}
+
+	/**
+	 * @return the wheel on which timeouts are set: in a partitioned
+	 *         simulation, the current partition's, so that a timeout expires
+	 *         on the thread of the host that set it; otherwise the only one
+	 */
+	public static TimerWheel getTimerWheel() {
+		if (engine != null) {
+			Partition p = ParallelEngine.current();
+			if (p != null) {
+				return p.getTimerWheel();
+			}
+		}
+		synchronized (Simulation.class) {
+			if (timerWheel == null) {
+				timerWheel = new TimerWheel(timerTickNanos, TimerWheel.DEFAULT_SLOTS);
+			}
+			return timerWheel;
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+				Thread t = new Thread(r, "ibr-timer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return timer;
+	}
+
+	public static LinkModel getLinkModel() {
+		return linkModel;
+	}
+
+	public static void setLinkModel(LinkModel linkModel) {
+		Simulation.linkModel = linkModel;
+	}
+
+	/**
+	 * Supply the executor that runs application loops in real-time mode. Each
+	 * loop runs until the simulation terminates, so the executor must not
+	 * bound the number of concurrently running tasks below the number of
+	 * loops.
+	 */
+	public static void setExecutor(Executor executor) {
+		Simulation.executor = executor;
+	}
+
+	/**
+	 * Configure the executor for application loops from the thread mode.
+	 *
+	 * @param threads
+	 *            platform or virtual threads
+	 * @param stackSize
+	 *            the stack size, in bytes, of platform threads; 0 for the JVM
+	 *            default
+	 */
+	public static void setThreads(Threads threads, long stackSize) {
+		ThreadFactory factory = null;
+		if (threads == Threads.VIRTUAL) {
+			factory = virtualThreadFactory();
+			if (factory == null) {
+				Trace.error(Trace.Category.SIMULATION, "simulation.threads: virtual needs a Java 21 or later JVM, and "
+						+ "this is Java " + System.getProperty("java.version") + "; using platform threads.");
+			}
+		}
+		if (factory == null) {
+			factory = platformThreadFactory(stackSize);
+		}
+		ThreadFactory threadFactory = factory;
+		executor = (r) -> threadFactory.newThread(r).start();
+	}
+
+	private static ThreadFactory platformThreadFactory(long stackSize) {
+		AtomicInteger count = new AtomicInteger();
+		return (r) -> new Thread(null, r, "ibr-" + count.getAndIncrement(), stackSize);
+	}
+
+	/**
+	 * Virtual threads arrived in Java 21; look them up reflectively so that
+	 * the simulator, which is built for Java 17, still runs on older JVMs.
+	 * Virtual threads are used only when it runs on Java 21 or later.
+	 *
+	 * @return a factory of virtual threads, or null if there are none
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "ibr-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Run an application loop in real-time mode.
+	 */
+	public static void execute(Runnable loop) {
+		if (executor == null) {
+			setThreads(Threads.PLATFORM, 0);
+		}
+		executor.execute(loop);
+	}
+
+	public static void addHost(Host h) {
+		if (Trace.isEnabled(Trace.Category.SIMULATION, Trace.Level.DEBUG)) {
+			Trace.debug(Trace.Category.SIMULATION, "Adding " + h + " to the simulation.");
+		}
+		hostMap.put(h.getIPv4(), h);
+	}
+
+	public static Host getHost(InetAddress addr) {
+		return getHost(IPv4.pack(addr));
+	}
+
+	public static Host getHost(int addr) {
+		Host h = hostMap.get(addr);
+		return h;
+	}
+
+	/**
+	 * @return every host in the simulation
+	 */
+	static Host[] getHosts() {
+		return hostMap.values();
+	}
+
+	public static long getElapsedNanos() {
+		if (mode == Mode.DISCRETE) {
+			if (engine != null) {
+				Partition p = ParallelEngine.current();
+				return p != null ? p.scheduler.now() : engine.now();
+			}
+			return scheduler.now();
+		}
+		if (startNanos == 0) {
+			// Not started: the set-up happens at time 0, as it does in discrete mode
+			return 0;
+		}
+		return System.nanoTime() - startNanos;
+	}
+
+	/**
+	 * @return the number of events fired so far in discrete-event mode
+	 */
+	public static long getEventCount() {
+		return engine != null ? engine.getEventCount() : scheduler.getEventCount();
+	}
+
+	public static float getElapsedSeconds() {
+		return getElapsedNanos() / 1.0e9f;
+	}
+
+	public static long getElapsedMillis() {
+		return getElapsedNanos() / 1000000L;
+	}
+
+	/**
+	 * Report the load on each partition, and how unevenly it was spread.
+	 */
+	private static void reportPartitions() {
+		if (engine == null) {
+			return;
+		}
+		for (Partition p : engine.getPartitions()) {
+			Trace.info(Trace.Category.SIMULATION, "Partition " + p);
+		}
+		Trace.info(Trace.Category.SIMULATION, engine.getWindowCount() + " windows; imbalance "
+				+ engine.getImbalance() + " (busiest partition's busy time over the mean)");
+	}
+
+	/**
+	 * Summarize the introductions made during the run, and the handshake time
+	 * that the introduction caches saved.
+	 */
+	private static void reportIntroductions() {
+		long requested = 0, completed = 0, denied = 0, handshakeNanos = 0, cacheHits = 0;
+		long flushed = 0, waitNanos = 0, maxWaitNanos = 0, rejected = 0, expired = 0;
+		for (Host h : hostMap.values()) {
+			IntroductionAgent agent = h.getIntroductionAgent();
+			if (agent != null) {
+				requested += agent.getRequestCount();
+				completed += agent.getCompletedCount();
+				denied += agent.getDeniedCount();
+				handshakeNanos += agent.getHandshakeNanos();
+				cacheHits += agent.getCacheHits();
+				UnsendableQueue q = h.getUnsendableQueue();
+				flushed += q.getFlushedCount();
+				waitNanos += q.getWaitNanos();
+				maxWaitNanos = Math.max(maxWaitNanos, q.getMaxWaitNanos());
+				rejected += q.getRejectedCount();
+				expired += q.getExpiredCount();
+			}
+		}
+		if (requested == 0 && cacheHits == 0) {
+			return;
+		}
+		double meanMillis = completed == 0 ? 0 : handshakeNanos / 1.0e6 / completed;
+		Trace.info(Trace.Category.SIMULATION, "Introductions: " + requested + " requested, " + completed
+				+ " completed, " + denied + " denied; mean handshake " + meanMillis + " ms");
+		Trace.info(Trace.Category.SIMULATION, "Introduction cache: " + cacheHits + " hits, saving about "
+				+ (cacheHits * meanMillis) + " ms of handshakes");
+		double meanWaitMillis = flushed == 0 ? 0 : waitNanos / 1.0e6 / flushed;
+		Trace.info(Trace.Category.SIMULATION, "Pending sends: " + flushed + " sent after a mean wait of "
+				+ meanWaitMillis + " ms (max " + maxWaitNanos / 1.0e6 + " ms); " + rejected + " rejected, " + expired
+				+ " timed out");
+	}
+
+	/**
+	 * Summarize the legitimate and attack traffic, and the fraction of
+	 * legitimate requests that were answered.
+	 */
+	private static void reportTraffic() {
+		long requests = 0, attacks = 0, responses = 0;
+		for (Host h : hostMap.values()) {
+			for (Application a : h.getApplications()) {
+				requests += a.getRequestsSent();
+				attacks += a.getAttacksSent();
+				responses += a.getResponsesReceived();
+			}
+		}
+		if (attacks == 0) {
+			return;
+		}
+		Trace.info(Trace.Category.SIMULATION, "Traffic: " + requests + " requests, " + attacks + " attacks ("
+				+ (requests == 0 ? 0 : (double) attacks / requests) + " per request); "
+				+ (requests == 0 ? 0 : 100.0 * responses / requests) + "% of requests answered");
+	}
+
+	/**
+	 * Summarize how often hosts came to distrust their peers.
+	 */
+	private static void reportReputations() {
+		long distrusts = 0;
+		int distrusted = 0;
+		long now = getElapsedNanos();
+		for (Host h : hostMap.values()) {
+			distrusts += h.getDistrustCount();
+			distrusted += h.getReputation().getDistrusted(now).size();
+		}
+		if (distrusts == 0) {
+			return;
+		}
+		Trace.info(Trace.Category.SIMULATION, "Reputation: peers became distrusted " + distrusts
+				+ " times; " + distrusted + " are distrusted at the end of the run");
+	}
+
+	/**
+	 * Summarize, for each type of server with a service-time model, how busy
+	 * its workers were, how long messages waited for them, and how many
+	 * messages found the queue full.
+	 */
+	private static void reportServers() {
+		Map<String, Long> rejected = new HashMap<>();
+		for (Host h : hostMap.values()) {
+			for (Application a : h.getApplications()) {
+				if (a.getWorkers() > 0 && a.getCommsPort() instanceof SimCommsPort) {
+					rejected.merge(a.getType(), ((SimCommsPort) a.getCommsPort()).getQueue().getDropCount(), Long::sum);
+				}
+			}
+		}
+		double elapsed = getElapsedNanos();
+		for (Map.Entry<String, Metrics.Counters> e : Metrics.getCounters().entrySet()) {
+			Metrics.Counters c = e.getValue();
+			if (c.getWorkers() == 0 || elapsed <= 0) {
+				continue;
+			}
+			Histogram.Snapshot wait = c.getWaitTimes().snapshot();
+			Trace.info(Trace.Category.SIMULATION, "Server " + e.getKey() + ": " + c.getServed() + " served by "
+					+ c.getWorkers() + " workers; utilization " + 100.0 * c.getBusyNanos() / (c.getWorkers() * elapsed)
+					+ "%; wait mean " + wait.getMean() / 1.0e6 + " ms, p99 " + wait.getPercentile(99) / 1.0e6
+					+ " ms; " + rejected.getOrDefault(e.getKey(), 0L) + " rejected");
+		}
+	}
+
+	/**
+	 * Summarize the time from each request to its response.
+	 */
+	private static void reportRoundTrips() {
+		if (Metrics.getRoundTripTimes().snapshot().getCount() == 0) {
+			return;
+		}
+		Trace.info(Trace.Category.SIMULATION, "Latency: " + Metrics.summarize());
+	}
+
+	/**
+	 * Summarize, for each client type whose requests went unanswered, how
+	 * many timed out, were sent again and were given up on, and how many
+	 * responses came too late, and how many requests are still outstanding.
+	 */
+	private static void reportTimeouts() {
+		Map<String, Long> outstanding = new HashMap<>();
+		for (Host h : hostMap.values()) {
+			for (Application a : h.getApplications()) {
+				outstanding.merge(a.getType(), (long) a.getOutstandingCount(), Long::sum);
+			}
+		}
+		for (Map.Entry<String, Metrics.Counters> e : Metrics.getCounters().entrySet()) {
+			Metrics.Counters c = e.getValue();
+			if (c.getTimeouts() == 0 && c.getLate() == 0) {
+				continue;
+			}
+			Trace.info(Trace.Category.SIMULATION, "Requests " + e.getKey() + ": " + c.getTimeouts() + " timed out, "
+					+ c.getRetries() + " retried, " + c.getFailed() + " failed; " + c.getLate()
+					+ " late responses; " + outstanding.getOrDefault(e.getKey(), 0L) + " outstanding");
+		}
+	}
+
+	public static void main(String[] args) throws UnknownHostException, IOException {
+		ComponentFactory.setContext(ComponentFactory.Context.SIMULATION);
+		String filename = args[0];
+		ApplicationConfigurationServer config = new ApplicationConfigurationServer(filename);
+		setUp(config);
+		run(config);
+	}
+
+	/**
+	 * Configure the simulation and create its hosts, without starting them.
+	 */
+	static void setUp(ApplicationConfigurationServer config) {
+		mode = config.getSimulationMode();
+		ComponentFactory.setContext(config.getContext());
+		MessagePool.setCapacity(config.getMessagePoolCapacity());
+		if (config.getSeed() != null) {
+			seed = config.getSeed();
+		}
+		Trace.info(Trace.Category.SIMULATION, "Random seed: " + seed);
+		linkModel = config.getLinkModel();
+		Trace.info(Trace.Category.SIMULATION, "Link model: " + linkModel);
+		timerTickNanos = config.getTimerTickNanos();
+		if (mode == Mode.REALTIME && executor == null) {
+			setThreads(config.getThreads(), config.getThreadStackSize());
+		}
+		if (mode == Mode.DISCRETE && config.getPartitions() > 1) {
+			long lookahead = linkModel.getMinimumDelay();
+			if (lookahead > 0) {
+				engine = new ParallelEngine(config.getPartitions(), lookahead);
+				Trace.info(Trace.Category.SIMULATION, config.getPartitions() + " partitions, lookahead " + lookahead
+						+ " ns");
+			} else {
+				Trace.error(Trace.Category.SIMULATION, "simulation.partitions needs a link model whose messages "
+						+ "take some time in transit; running one partition.");
+			}
+		}
+		int[] addrs = config.getHosts();
+		for (int i = 0; i < addrs.length; i++) {
+			InetAddress addr = IPv4.unpack(addrs[i]);
+			Node node = new Node(new UnsendableQueue(config.getPendingCapacity(),
+					(long) (config.getPendingTimeout() * 1.0e9)));
+			Host h = new Host(addr, node, config);
+			if (engine != null) {
+				// Neighbouring addresses share a partition
+				int p = (int) ((long) i * engine.getPartitions().length / addrs.length);
+				h.setPartition(p);
+				engine.getPartition(p).addHost();
+			}
+		}
+	}
+
+	/**
+	 * Start the hosts and, in discrete-event mode, run the simulation to its
+	 * end and report on it.
+	 */
+	static void run(ApplicationConfigurationServer config) {
+		startTime = System.currentTimeMillis();
+		startNanos = System.nanoTime() | 1;
+		for (Host h : hostMap.values()) {
+			if (engine != null) {
+				ParallelEngine.setCurrent(engine.getPartition(h.getPartition()));
+			}
+			h.simulate();
+		}
+		if (engine != null) {
+			ParallelEngine.setCurrent(engine.getPartition(0));
+		}
+		Metrics.start();
+		ParallelEngine.setCurrent(null);
+		if (mode == Mode.DISCRETE) {
+			long duration = (long) (config.getDuration() * 1.0e9);
+			if (engine != null) {
+				try {
+					engine.run(duration);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			} else {
+				scheduler.run(duration);
+			}
+			long events = getEventCount();
+			terminate();
+			long wallMillis = System.currentTimeMillis() - startTime;
+			Trace.info(Trace.Category.SIMULATION, "Simulated " + getElapsedSeconds() + " seconds (" + events
+					+ " events) in " + wallMillis + " ms.");
+			reportPartitions();
+			reportIntroductions();
+			reportReputations();
+			reportTraffic();
+			reportServers();
+			reportRoundTrips();
+			reportTimeouts();
+			Metrics.close();
+			Trace.close();
+		} else {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				Metrics.close();
+				Trace.close();
+			}));
+		}
+	}
+
+}
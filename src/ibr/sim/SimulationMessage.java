@@ -1,93 +1,222 @@
-package ibr.sim;
-
-import java.net.InetAddress;
-import java.util.concurrent.atomic.AtomicLong;
-
-import ibr.core.Message;
-
-public class SimulationMessage implements Message {
-
-	private InetAddress srcAddr;
-	private InetAddress dstAddr;
-	private int srcPort;
-	private int dstPort;
-
-	private Type type;
-
-	private final long UUID;
-	private Role role;
-	private SimulationMessage inResponseTo;
-
-	private static AtomicLong index = new AtomicLong(1);
-
-	public enum Type {
-		NONE, APPLICATION, ATTACK
-	};
-
-	public enum Role {
-		NONE, REQUEST, RESPONSE
-	};
-
-	private SimulationMessage(Role role, Type type) {
-		this.role = role;
-		this.type = type;
-		this.UUID = index.getAndIncrement();
-	}
-
-	public SimulationMessage(Role role, Type type, InetAddress srcAddr, InetAddress dstAddr, int srcPort, int dstPort) {
-		this(role, type);
-		this.srcAddr = srcAddr;
-		this.srcPort = srcPort;
-		this.dstAddr = dstAddr;
-		this.dstPort = dstPort;
-	}
-
-	private SimulationMessage(Type application, SimulationMessage msg) {
-		this(Role.RESPONSE, application);
-		inResponseTo = msg;
-		this.srcAddr = msg.dstAddr;
-		this.srcPort = msg.dstPort;
-		this.dstAddr = msg.srcAddr;
-		this.dstPort = msg.srcPort;
-	}
-
-	@Override
-	public InetAddress getSrcAddr() {
-		return srcAddr;
-	}
-
-	@Override
-	public InetAddress getDstAddr() {
-		return dstAddr;
-	}
-
-	@Override
-	public int getSrcPort() {
-		return srcPort;
-	}
-
-	@Override
-	public int getDstPort() {
-		return dstPort;
-	}
-
-	public Type getType() {
-		return type;
-	}
-
-	public SimulationMessage getInResponseTo() {
-		if (role != Role.RESPONSE) {
-			return null;
-		}
-		return inResponseTo;
-	}
-
-	public SimulationMessage createResponse() {
-		return new SimulationMessage(Type.APPLICATION, this);
-	}
-
-	public String toString() {
-		return type + "." + role + "(" + UUID + ")";
-	}
-
-}
+package ibr.sim;
+
+import java.net.InetAddress;
+
+import ibr.core.IPv4;
+import ibr.core.Message;
+
+/**
+ * A message in the simulation. A message in transit is itself the event that
+ * delivers it to its destination host.
+ * <p>
+ * Messages are kept compact, because millions of them are created in a long
+ * run: addresses are packed into ints, ports into shorts, and the type and
+ * role into bytes. A response refers to its request by the request's ID
+ * rather than by reference, so that a response does not keep the chain of
+ * requests before it reachable.
+ * <p>
+ * Messages may be recycled through a {@link MessagePool}: obtain them with
+ * the static <code>obtain</code> methods and {@link #recycle()} them once they
+ * have been consumed.
+ */
+public class SimulationMessage extends Event implements Message {
+
+	private int srcAddr;
+	private int dstAddr;
+	private short srcPort;
+	private short dstPort;
+
+	private byte type;
+	private byte role;
+	private short packets = 1;
+
+	private long UUID;
+	private long inResponseTo;
+	private int subject;
+
+	public enum Type {
+		NONE, APPLICATION, ATTACK, INTRODUCTION
+	};
+
+	/**
+	 * Application messages are requests and responses. Introduction messages
+	 * are requests, offers, acceptances and denials; see
+	 * {@link IntroductionAgent}.
+	 */
+	public enum Role {
+		NONE, REQUEST, RESPONSE, OFFER, ACCEPT, DENY
+	};
+
+	private static final Type[] TYPES = Type.values();
+
+	private static final Role[] ROLES = Role.values();
+
+	SimulationMessage() {
+	}
+
+	public SimulationMessage(long id, Role role, Type type, InetAddress srcAddr, InetAddress dstAddr, int srcPort,
+			int dstPort) {
+		this(id, role, type, IPv4.pack(srcAddr), IPv4.pack(dstAddr), srcPort, dstPort);
+	}
+
+	public SimulationMessage(long id, Role role, Type type, int srcAddr, int dstAddr, int srcPort, int dstPort) {
+		set(id, role, type, srcAddr, dstAddr, srcPort, dstPort);
+	}
+
+	private void set(long id, Role role, Type type, int srcAddr, int dstAddr, int srcPort, int dstPort) {
+		this.role = (byte) role.ordinal();
+		this.type = (byte) type.ordinal();
+		this.UUID = id;
+		this.srcAddr = srcAddr;
+		this.srcPort = (short) srcPort;
+		this.dstAddr = dstAddr;
+		this.dstPort = (short) dstPort;
+		this.packets = 1;
+	}
+
+	/**
+	 * Get a message from the current thread's pool, or a new one if pooling is
+	 * disabled or the pool is empty.
+	 *
+	 * @param id
+	 *            the message's ID, from the sending host's {@link IdAllocator}
+	 */
+	public static SimulationMessage obtain(long id, Role role, Type type, int srcAddr, int dstAddr, int srcPort,
+			int dstPort) {
+		SimulationMessage msg = MessagePool.take();
+		msg.set(id, role, type, srcAddr, dstAddr, srcPort, dstPort);
+		return msg;
+	}
+
+	/**
+	 * Return this message to the current thread's pool. The caller must hold
+	 * the only reference to the message.
+	 */
+	public void recycle() {
+		MessagePool.give(this);
+	}
+
+	void clear() {
+		srcAddr = dstAddr = 0;
+		srcPort = dstPort = 0;
+		type = role = 0;
+		packets = 1;
+		UUID = inResponseTo = 0;
+		subject = 0;
+		time = seq = 0;
+	}
+
+	/**
+	 * Resolve a packed address to the InetAddress of its host, without
+	 * allocating, where possible.
+	 */
+	private static InetAddress toInetAddress(int addr) {
+		Host h = Simulation.getHost(addr);
+		return h != null ? h.getAddr() : IPv4.unpack(addr);
+	}
+
+	@Override
+	public InetAddress getSrcAddr() {
+		return toInetAddress(srcAddr);
+	}
+
+	@Override
+	public InetAddress getDstAddr() {
+		return toInetAddress(dstAddr);
+	}
+
+	@Override
+	public int getSrcIPv4() {
+		return srcAddr;
+	}
+
+	@Override
+	public int getDstIPv4() {
+		return dstAddr;
+	}
+
+	@Override
+	public int getSrcPort() {
+		return srcPort & 0xffff;
+	}
+
+	@Override
+	public int getDstPort() {
+		return dstPort & 0xffff;
+	}
+
+	public Type getType() {
+		return TYPES[type];
+	}
+
+	public Role getRole() {
+		return ROLES[role];
+	}
+
+	/**
+	 * @return the number of packets that this message stands for, >= 1
+	 */
+	public int getPackets() {
+		return packets;
+	}
+
+	public void setPackets(int packets) {
+		if (packets < 1 || packets > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("packets = " + packets);
+		}
+		this.packets = (short) packets;
+	}
+
+	public long getId() {
+		return UUID;
+	}
+
+	/**
+	 * @return the ID of the request that this message answers, or 0 if this
+	 *         message is a request
+	 */
+	public long getInResponseTo() {
+		if (role == Role.REQUEST.ordinal()) {
+			return 0;
+		}
+		return inResponseTo;
+	}
+
+	public void setInResponseTo(long id) {
+		this.inResponseTo = id;
+	}
+
+	/**
+	 * @return for an introduction message, the packed address of the host
+	 *         being introduced
+	 */
+	public int getSubject() {
+		return subject;
+	}
+
+	public void setSubject(int subject) {
+		this.subject = subject;
+	}
+
+	/**
+	 * @param id
+	 *            the response's ID, from the responding host's
+	 *            {@link IdAllocator}
+	 */
+	public SimulationMessage createResponse(long id) {
+		SimulationMessage response = MessagePool.take();
+		response.set(id, Role.RESPONSE, Type.APPLICATION, dstAddr, srcAddr, getDstPort(), getSrcPort());
+		response.inResponseTo = UUID;
+		return response;
+	}
+
+	@Override
+	public void fire() {
+		Simulation.getHost(dstAddr).receive(this);
+	}
+
+	public String toString() {
+		return getType() + "." + getRole() + "(" + IdAllocator.toString(UUID) + ")";
+	}
+
+}
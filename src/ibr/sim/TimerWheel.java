@@ -0,0 +1,202 @@
+package ibr.sim;
+
+/**
+ * A hashed timing wheel: timeouts are kept in a ring of buckets, one per
+ * tick, so scheduling and cancelling a timeout take constant time however
+ * many are pending, and no timeout needs an event of its own. A timeout whose
+ * deadline is more than a turn of the wheel away waits in its bucket for the
+ * later turn. The wheel is advanced by a single event that fires every tick,
+ * and only while timeouts are pending; a timeout expires at the first tick at
+ * or after its deadline.
+ * <p>
+ * A discrete-event simulation has one wheel per partition, so that every
+ * timeout expires on the thread of the host that set it; see
+ * {@link Simulation#getTimerWheel()}. Timeouts expire outside the wheel's
+ * lock, so their handlers may schedule and cancel timeouts freely.
+ *
+ * @author glfrazier
+ *
+ */
+public class TimerWheel {
+
+	public static final long DEFAULT_TICK_NANOS = 100000000L;
+
+	public static final int DEFAULT_SLOTS = 1024;
+
+	/**
+	 * Something that happens unless it is cancelled by its deadline.
+	 */
+	public abstract static class Timeout {
+
+		private long deadline;
+
+		private Timeout next;
+
+		private Timeout prev;
+
+		private int bucket = -1;
+
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * @return whether the timeout is waiting in a wheel
+		 */
+		public boolean isScheduled() {
+			return bucket >= 0;
+		}
+
+		protected abstract void expire();
+
+	}
+
+	private final long tickNanos;
+
+	private final Timeout[] buckets;
+
+	private final int mask;
+
+	/**
+	 * The last tick whose bucket has been expired.
+	 */
+	private long lastTick;
+
+	private int pending;
+
+	private boolean ticking;
+
+	private final Event tickEvent = new Event() {
+		@Override
+		public void fire() {
+			tick();
+		}
+	};
+
+	public TimerWheel(long tickNanos, int slots) {
+		if (tickNanos <= 0 || Integer.bitCount(slots) != 1) {
+			throw new IllegalArgumentException("tick " + tickNanos + " ns, " + slots + " slots");
+		}
+		this.tickNanos = tickNanos;
+		this.buckets = new Timeout[slots];
+		this.mask = slots - 1;
+	}
+
+	public long getTickNanos() {
+		return tickNanos;
+	}
+
+	/**
+	 * @return the number of timeouts waiting to expire
+	 */
+	public synchronized int size() {
+		return pending;
+	}
+
+	/**
+	 * Schedule a timeout, or move it if it is already scheduled.
+	 */
+	public void schedule(Timeout t, long deadline) {
+		boolean start;
+		synchronized (this) {
+			if (t.bucket >= 0) {
+				unlink(t);
+			}
+			start = !ticking;
+			if (start) {
+				ticking = true;
+				lastTick = Simulation.getElapsedNanos() / tickNanos;
+			}
+			t.deadline = deadline;
+			long tick = Math.max((deadline + tickNanos - 1) / tickNanos, lastTick + 1);
+			int b = (int) (tick & mask);
+			t.bucket = b;
+			t.prev = null;
+			t.next = buckets[b];
+			if (t.next != null) {
+				t.next.prev = t;
+			}
+			buckets[b] = t;
+			pending++;
+		}
+		if (start) {
+			Simulation.schedule(tickEvent, tickNanos);
+		}
+	}
+
+	/**
+	 * Cancel a timeout. Cancelling a timeout that has expired, or is about
+	 * to, does nothing.
+	 *
+	 * @return whether the timeout was waiting in the wheel
+	 */
+	public synchronized boolean cancel(Timeout t) {
+		if (t.bucket < 0) {
+			return false;
+		}
+		unlink(t);
+		return true;
+	}
+
+	private void unlink(Timeout t) {
+		if (t.prev != null) {
+			t.prev.next = t.next;
+		} else {
+			buckets[t.bucket] = t.next;
+		}
+		if (t.next != null) {
+			t.next.prev = t.prev;
+		}
+		t.next = t.prev = null;
+		t.bucket = -1;
+		pending--;
+	}
+
+	/**
+	 * Expire every timeout whose deadline is at or before <code>now</code>.
+	 *
+	 * @return the number of timeouts that expired
+	 */
+	public int advance(long now) {
+		Timeout expired = null;
+		synchronized (this) {
+			long target = now / tickNanos;
+			long first = Math.max(lastTick + 1, target - mask);
+			for (long tick = first; tick <= target; tick++) {
+				Timeout t = buckets[(int) (tick & mask)];
+				while (t != null) {
+					Timeout next = t.next;
+					if (t.deadline <= now) {
+						unlink(t);
+						t.next = expired;
+						expired = t;
+					}
+					t = next;
+				}
+			}
+			lastTick = Math.max(lastTick, target);
+		}
+		int n = 0;
+		while (expired != null) {
+			Timeout t = expired;
+			expired = t.next;
+			t.next = null;
+			t.expire();
+			n++;
+		}
+		return n;
+	}
+
+	private void tick() {
+		advance(Simulation.getElapsedNanos());
+		boolean more;
+		synchronized (this) {
+			more = pending > 0;
+			ticking = more;
+		}
+		if (more) {
+			Simulation.schedule(tickEvent, tickNanos);
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+package ibr.sim;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import ibr.core.IPv4;
+
+/**
+ * Generates the configuration of a synthetic topology: <code>n</code>
+ * consecutive hosts from 10.0.0.1, of which the first are servers and the
+ * rest are clients that send to them. Run as a program, it writes the
+ * configuration to standard output:
+ *
+ * <pre>
+ * java ibr.sim.TopologyGenerator &lt;hosts&gt; [&lt;server fraction&gt; [&lt;duration&gt;]] &gt; big.prop
+ * </pre>
+ *
+ * @author glfrazier
+ *
+ */
+public class TopologyGenerator {
+
+	public static final int FIRST = IPv4.parse("10.0.0.1");
+
+	public static final int SERVER_PORT = 20;
+
+	private int hosts;
+
+	private double serverFraction = 0.01;
+
+	private double lambda = 1.0;
+
+	private double duration = 60.0;
+
+	public TopologyGenerator(int hosts) {
+		if (hosts < 1 || (long) FIRST + hosts > 0xffffffffL) {
+			throw new IllegalArgumentException("hosts = " + hosts);
+		}
+		this.hosts = hosts;
+	}
+
+	/**
+	 * @param serverFraction
+	 *            the fraction of the hosts that are servers; there is always
+	 *            at least one
+	 */
+	public TopologyGenerator setServerFraction(double serverFraction) {
+		this.serverFraction = serverFraction;
+		return this;
+	}
+
+	/**
+	 * @param lambda
+	 *            the transactions per second of each client
+	 */
+	public TopologyGenerator setLambda(double lambda) {
+		this.lambda = lambda;
+		return this;
+	}
+
+	/**
+	 * @param duration
+	 *            the simulated seconds to run
+	 */
+	public TopologyGenerator setDuration(double duration) {
+		this.duration = duration;
+		return this;
+	}
+
+	public int getServers() {
+		return (int) Math.max(1, Math.min(hosts, Math.round(hosts * serverFraction)));
+	}
+
+	/**
+	 * @return the properties, as key and value, in the order of a
+	 *         hand-written configuration file
+	 */
+	public List<String[]> entries() {
+		int servers = getServers();
+		List<String[]> entries = new ArrayList<>();
+		entries.add(new String[] { "hosts", range(FIRST, hosts) });
+		entries.add(new String[] { range(FIRST, servers), "server" });
+		if (hosts > servers) {
+			entries.add(new String[] { range(FIRST + servers, hosts - servers), "client" });
+		}
+		entries.add(new String[] { "server.port", Integer.toString(SERVER_PORT) });
+		entries.add(new String[] { "client.lambda", Double.toString(lambda) });
+		entries.add(new String[] { "client.dsttype", "server" });
+		entries.add(new String[] { "simulation.mode", "discrete" });
+		entries.add(new String[] { "simulation.duration", Double.toString(duration) });
+		entries.add(new String[] { "simulation.messagePool", "1024" });
+		entries.add(new String[] { "simulation.seed", "1" });
+		return entries;
+	}
+
+	public Properties generate() {
+		Properties props = new Properties();
+		for (String[] e : entries()) {
+			props.setProperty(e[0], e[1]);
+		}
+		return props;
+	}
+
+	public void write(PrintStream out) {
+		for (String[] e : entries()) {
+			out.println(e[0] + ": " + e[1]);
+		}
+	}
+
+	private static String range(int first, int count) {
+		if (count == 1) {
+			return IPv4.toString(first);
+		}
+		return IPv4.toString(first) + "-" + IPv4.toString(first + count - 1);
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: TopologyGenerator <hosts> [<server fraction> [<duration>]]");
+			System.exit(-1);
+		}
+		TopologyGenerator generator = new TopologyGenerator(Integer.parseInt(args[0]));
+		if (args.length > 1) {
+			generator.setServerFraction(Double.parseDouble(args[1]));
+		}
+		if (args.length > 2) {
+			generator.setDuration(Double.parseDouble(args[2]));
+		}
+		generator.write(System.out);
+	}
+
+}
@@ -0,0 +1,524 @@
+package ibr.sim;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import ibr.core.IPv4;
+import ibr.net.MessageCodec;
+
+/**
+ * The simulation's event log. Callers record events into a ring buffer of
+ * preallocated records; a background thread drains the ring and writes the
+ * records as CSV or in a compact binary form. Recording copies the fields of
+ * a message rather than keeping a reference to it, so messages may be
+ * recycled as soon as they have been recorded.
+ * <p>
+ * Every category of event has its own level. Hot paths check
+ * {@link #isEnabled(Category, Level)} before building a record, so a disabled
+ * category costs one array load per event.
+ * <p>
+ * Configured from the properties <code>trace.file</code> (default: standard
+ * output), <code>trace.format</code> (<code>csv</code> or
+ * <code>binary</code>), <code>trace.level</code>,
+ * <code>trace.&lt;category&gt;.level</code> and <code>trace.bufferSize</code>.
+ *
+ * @author glfrazier
+ *
+ */
+public class Trace {
+
+	public enum Category {
+		SIMULATION, CONFIG, HOST, MESSAGE, TUNNEL
+	};
+
+	public enum Level {
+		OFF, ERROR, INFO, DEBUG
+	};
+
+	public enum Kind {
+		LOG, SEND, RECEIVE, DROP
+	};
+
+	public enum Format {
+		CSV, BINARY
+	};
+
+	private static final Category[] CATEGORIES = Category.values();
+
+	private static final SimulationMessage.Type[] TYPES = SimulationMessage.Type.values();
+
+	private static final SimulationMessage.Role[] ROLES = SimulationMessage.Role.values();
+
+	/**
+	 * The binary format begins with this magic number and a version. Each
+	 * record then has its time, category, kind, and either, for LOG records,
+	 * its text, or the node and port followed by the message in the layout of
+	 * {@link MessageCodec}.
+	 */
+	public static final int BINARY_MAGIC = 0x49425254; // "IBRT"
+
+	public static final int BINARY_VERSION = 2;
+
+	private static final int[] levels = new int[CATEGORIES.length];
+
+	static {
+		for (Category c : CATEGORIES) {
+			levels[c.ordinal()] = Level.INFO.ordinal();
+		}
+	}
+
+	private static volatile Trace instance;
+
+	private static Trace instance() {
+		Trace t = instance;
+		if (t == null) {
+			synchronized (Trace.class) {
+				if (instance == null) {
+					instance = new Trace(System.out, Format.CSV, 1 << 16);
+				}
+				t = instance;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Configure tracing from the simulation's properties, closing any trace
+	 * that is already open. A setting that cannot be parsed is reported, once
+	 * the new trace is open, and its default is used.
+	 */
+	public static synchronized void configure(Properties props) {
+		List<String> errors = new ArrayList<>();
+		Level level = parseLevel(props, "trace.level", Level.INFO, errors);
+		for (Category c : CATEGORIES) {
+			String key = "trace." + c.name().toLowerCase(Locale.ROOT) + ".level";
+			levels[c.ordinal()] = parseLevel(props, key, level, errors).ordinal();
+		}
+		Format format = Format.CSV;
+		try {
+			format = Format.valueOf(props.getProperty("trace.format", "csv").trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			errors.add("Failure to parse property trace.format: " + e);
+		}
+		int bufferSize = 65536;
+		try {
+			int n = Integer.parseInt(props.getProperty("trace.bufferSize", "65536").trim());
+			if (n <= 0) {
+				throw new IllegalArgumentException("trace.bufferSize <= 0: " + n);
+			}
+			bufferSize = n;
+		} catch (IllegalArgumentException e) {
+			errors.add("Failure to parse property trace.bufferSize: " + e);
+		}
+		String file = props.getProperty("trace.file", "-").trim();
+		OutputStream out = System.out;
+		if (!file.equals("-")) {
+			try {
+				out = new FileOutputStream(file);
+			} catch (IOException e) {
+				errors.add("Failure to open trace.file; tracing to standard output: " + e);
+			}
+		}
+		close();
+		instance = new Trace(out, format, bufferSize);
+		for (String e : errors) {
+			error(Category.CONFIG, e);
+		}
+	}
+
+	private static Level parseLevel(Properties props, String key, Level dflt, List<String> errors) {
+		String value = props.getProperty(key);
+		if (value == null) {
+			return dflt;
+		}
+		try {
+			return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			errors.add("Failure to parse property " + key + ": " + e);
+			return dflt;
+		}
+	}
+
+	public static void setLevel(Category category, Level level) {
+		levels[category.ordinal()] = level.ordinal();
+	}
+
+	public static boolean isEnabled(Category category, Level level) {
+		return level.ordinal() <= levels[category.ordinal()];
+	}
+
+	public static void error(Category category, String text) {
+		System.err.println(text);
+		log(category, Level.ERROR, text);
+	}
+
+	public static void info(Category category, String text) {
+		log(category, Level.INFO, text);
+	}
+
+	public static void debug(Category category, String text) {
+		log(category, Level.DEBUG, text);
+	}
+
+	private static void log(Category category, Level level, String text) {
+		if (!isEnabled(category, level)) {
+			return;
+		}
+		Trace t = instance();
+		Record r = t.claim();
+		r.category = category;
+		r.kind = Kind.LOG;
+		r.time = Simulation.getElapsedNanos();
+		r.node = 0;
+		r.port = 0;
+		r.clearMessage();
+		r.text = text;
+		t.publish(r);
+	}
+
+	/**
+	 * Record that a message was sent, received or dropped.
+	 *
+	 * @param kind
+	 *            what happened to the message
+	 * @param node
+	 *            the packed address of the host at which it happened
+	 * @param port
+	 *            the port at which it happened, or 0 for the host itself
+	 * @param msg
+	 *            the message
+	 */
+	public static void message(Kind kind, int node, int port, SimulationMessage msg) {
+		if (!isEnabled(Category.MESSAGE, Level.INFO)) {
+			return;
+		}
+		Trace t = instance();
+		Record r = t.claim();
+		r.category = Category.MESSAGE;
+		r.kind = kind;
+		r.time = Simulation.getElapsedNanos();
+		r.node = node;
+		r.port = port;
+		r.src = msg.getSrcIPv4();
+		r.srcPort = msg.getSrcPort();
+		r.dst = msg.getDstIPv4();
+		r.dstPort = msg.getDstPort();
+		r.type = (byte) msg.getType().ordinal();
+		r.role = (byte) msg.getRole().ordinal();
+		r.id = msg.getId();
+		r.inResponseTo = msg.getInResponseTo();
+		r.packets = msg.getPackets();
+		r.subject = msg.getSubject();
+		r.text = null;
+		t.publish(r);
+	}
+
+	/**
+	 * Write every record still in the ring and close the output.
+	 */
+	public static synchronized void close() {
+		Trace t = instance;
+		instance = null;
+		if (t != null) {
+			t.shutdown();
+		}
+	}
+
+	private static class Record {
+		volatile long published = -1;
+		Category category;
+		Kind kind;
+		long time;
+		int node;
+		int port;
+		int src;
+		int srcPort;
+		int dst;
+		int dstPort;
+		byte type;
+		byte role;
+		long id;
+		long inResponseTo;
+		int packets;
+		int subject;
+		String text;
+
+		void clearMessage() {
+			src = srcPort = dst = dstPort = 0;
+			type = role = 0;
+			id = inResponseTo = 0;
+			packets = subject = 0;
+		}
+	}
+
+	private final Record[] ring;
+
+	private final int mask;
+
+	private final AtomicLong claimed = new AtomicLong();
+
+	private volatile long consumed;
+
+	private volatile boolean open = true;
+
+	private final Thread writer;
+
+	private final OutputStream out;
+
+	private final Format format;
+
+	private Trace(OutputStream out, Format format, int bufferSize) {
+		int capacity = Integer.highestOneBit(Math.max(bufferSize, 2) * 2 - 1);
+		this.ring = new Record[capacity];
+		for (int i = 0; i < capacity; i++) {
+			ring[i] = new Record();
+		}
+		this.mask = capacity - 1;
+		this.out = out;
+		this.format = format;
+		this.writer = new Thread(this::drain, "ibr-trace");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Claim the next free record, waiting for the writer if the ring is full.
+	 */
+	private Record claim() {
+		while (true) {
+			long seq = claimed.get();
+			if (seq - consumed >= ring.length) {
+				LockSupport.parkNanos(1000);
+				continue;
+			}
+			if (claimed.compareAndSet(seq, seq + 1)) {
+				Record r = ring[(int) seq & mask];
+				r.published = -seq - 2;
+				return r;
+			}
+		}
+	}
+
+	private void publish(Record r) {
+		r.published = -r.published - 2;
+	}
+
+	private void drain() {
+		try (TraceWriter w = format == Format.BINARY ? new BinaryWriter(out) : new CsvWriter(out)) {
+			long next = 0;
+			int idle = 0;
+			while (open || next < claimed.get()) {
+				Record r = ring[(int) next & mask];
+				if (r.published != next) {
+					if (next == claimed.get() || ++idle > 100) {
+						w.flushIfIdle();
+						LockSupport.parkNanos(100000);
+						idle = 0;
+					}
+					continue;
+				}
+				w.write(r);
+				r.text = null;
+				next++;
+				consumed = next;
+			}
+		} catch (IOException | RuntimeException e) {
+			// Release the producers, which would otherwise wait for the ring
+			System.err.println("Trace writer failed: " + e);
+			open = false;
+			consumed = Long.MAX_VALUE / 2;
+		}
+	}
+
+	private void shutdown() {
+		open = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private interface TraceWriter extends AutoCloseable {
+		void write(Record r) throws IOException;
+
+		void flushIfIdle() throws IOException;
+
+		@Override
+		void close() throws IOException;
+	}
+
+	private static class CsvWriter implements TraceWriter {
+
+		private final Writer out;
+
+		private final boolean stdout;
+
+		private final StringBuilder sb = new StringBuilder(256);
+
+		private char[] chars = new char[256];
+
+		/**
+		 * Whether the header has been written; it is written with the first
+		 * record, so that a run that traces nothing writes nothing.
+		 */
+		private boolean header;
+
+		CsvWriter(OutputStream out) throws IOException {
+			this.stdout = out == System.out;
+			this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+		}
+
+		@Override
+		public void write(Record r) throws IOException {
+			if (!header) {
+				header = true;
+				sb.append("time_ns,category,kind,node,port,src,src_port,dst,dst_port,type,role,id,in_response_to,")
+						.append("packets,subject,text\n");
+			}
+			sb.append(r.time).append(',').append(r.category).append(',').append(r.kind).append(',');
+			if (r.kind == Kind.LOG) {
+				sb.append(",,,,,,,,,,,,");
+				String text = r.text;
+				if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0) {
+					sb.append('"').append(text.replace("\"", "\"\"")).append('"');
+				} else {
+					sb.append(text);
+				}
+			} else {
+				sb.append(IPv4.toString(r.node)).append(',').append(r.port).append(',');
+				sb.append(IPv4.toString(r.src)).append(',').append(r.srcPort).append(',');
+				sb.append(IPv4.toString(r.dst)).append(',').append(r.dstPort).append(',');
+				sb.append(TYPES[r.type]).append(',').append(ROLES[r.role]).append(',');
+				sb.append(IdAllocator.toString(r.id)).append(',');
+				if (r.inResponseTo != 0) {
+					sb.append(IdAllocator.toString(r.inResponseTo));
+				}
+				sb.append(',').append(r.packets).append(',');
+				if (r.subject != 0) {
+					sb.append(IPv4.toString(r.subject));
+				}
+				sb.append(',');
+			}
+			sb.append('\n');
+			int len = sb.length();
+			if (chars.length < len) {
+				chars = new char[len * 2];
+			}
+			sb.getChars(0, len, chars, 0);
+			out.write(chars, 0, len);
+			sb.setLength(0);
+		}
+
+		@Override
+		public void flushIfIdle() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.flush();
+			if (!stdout) {
+				out.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Encodes records into one buffer, which is written to the output in a
+	 * single call when it fills or the writer is idle.
+	 */
+	private static class BinaryWriter implements TraceWriter {
+
+		private static final int MAX_TEXT = 0xffff;
+
+		private final WritableByteChannel out;
+
+		private final boolean stdout;
+
+		private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+
+		BinaryWriter(OutputStream out) throws IOException {
+			this.stdout = out == System.out;
+			this.out = out instanceof FileOutputStream ? ((FileOutputStream) out).getChannel() : Channels.newChannel(out);
+			buf.putInt(BINARY_MAGIC);
+			buf.putInt(BINARY_VERSION);
+		}
+
+		@Override
+		public void write(Record r) throws IOException {
+			if (r.kind == Kind.LOG) {
+				byte[] text = r.text.getBytes(StandardCharsets.UTF_8);
+				// The record, header and all, must fit in the buffer
+				int len = Math.min(text.length, Math.min(MAX_TEXT, buf.capacity() - 12));
+				while (len < text.length && (text[len] & 0xc0) == 0x80) {
+					// Do not split a character
+					len--;
+				}
+				reserve(12 + len);
+				buf.putLong(r.time);
+				buf.put((byte) r.category.ordinal());
+				buf.put((byte) r.kind.ordinal());
+				buf.putShort((short) len);
+				buf.put(text, 0, len);
+				return;
+			}
+			reserve(16 + MessageCodec.ENCODED_SIZE);
+			buf.putLong(r.time);
+			buf.put((byte) r.category.ordinal());
+			buf.put((byte) r.kind.ordinal());
+			buf.putInt(r.node);
+			buf.putShort((short) r.port);
+			MessageCodec.encode(buf, r.type, r.role, r.src, r.dst, r.srcPort, r.dstPort, r.packets, r.id,
+					r.inResponseTo, r.subject);
+		}
+
+		private void reserve(int n) throws IOException {
+			if (buf.remaining() < n) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) {
+				out.write(buf);
+			}
+			buf.clear();
+			if (stdout) {
+				System.out.flush();
+			}
+		}
+
+		@Override
+		public void flushIfIdle() throws IOException {
+			flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+			if (!stdout) {
+				out.close();
+			}
+		}
+
+	}
+
+}
@@ -1,36 +1,119 @@
-package ibr.sim;
-
-import java.net.InetAddress;
-
-public class Tunnel {
-
-	private final InetAddress addr;
-	
-	public Tunnel(InetAddress addr) {
-		this.addr = addr;
-	}
-
-	public boolean equals(Object arg0) {
-		if (arg0 instanceof Tunnel) {
-			return addr.equals(((Tunnel)arg0).addr);
-		}
-		return false;
-	}
-
-	public byte[] getAddress() {
-		return addr.getAddress();
-	}
-
-	public String getHostAddress() {
-		return addr.getHostAddress();
-	}
-
-	public int hashCode() {
-		return addr.hashCode();
-	}
-
-	public String toString() {
-		return addr.toString();
-	}
-	
-}
+package ibr.sim;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import ibr.core.IPv4;
+
+/**
+ * A host's tunnel to one peer. A tunnel is identified by the peer's packed
+ * address, and counts the packets that pass through it in each direction.
+ * The counters are updated without locking, since several of a host's
+ * threads may use the same tunnel at once.
+ */
+public class Tunnel {
+
+	private static final AtomicLongFieldUpdater<Tunnel> SENT = AtomicLongFieldUpdater.newUpdater(Tunnel.class,
+			"packetsSent");
+
+	private static final AtomicLongFieldUpdater<Tunnel> RECEIVED = AtomicLongFieldUpdater.newUpdater(Tunnel.class,
+			"packetsReceived");
+
+	private final int addr;
+
+	private final long created;
+
+	private volatile long packetsSent;
+
+	private volatile long packetsReceived;
+
+	private volatile long lastUsed;
+
+	private volatile boolean pinned;
+
+	public Tunnel(int addr, long now) {
+		this.addr = addr;
+		this.created = now;
+		this.lastUsed = now;
+	}
+
+	public Tunnel(InetAddress addr, long now) {
+		this(IPv4.pack(addr), now);
+	}
+
+	/**
+	 * @return the peer's packed address
+	 */
+	public int getPeer() {
+		return addr;
+	}
+
+	void sent(int packets, long now) {
+		SENT.addAndGet(this, packets);
+		lastUsed = now;
+	}
+
+	void received(int packets, long now) {
+		RECEIVED.addAndGet(this, packets);
+		lastUsed = now;
+	}
+
+	/**
+	 * A pinned tunnel never expires, however long it is idle.
+	 */
+	public boolean isPinned() {
+		return pinned;
+	}
+
+	void setPinned(boolean pinned) {
+		this.pinned = pinned;
+	}
+
+	public long getPacketsSent() {
+		return packetsSent;
+	}
+
+	public long getPacketsReceived() {
+		return packetsReceived;
+	}
+
+	/**
+	 * @return the simulated time, in nanoseconds, at which the tunnel was
+	 *         created
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the simulated time, in nanoseconds, at which a packet last
+	 *         passed through the tunnel
+	 */
+	public long getLastUsed() {
+		return lastUsed;
+	}
+
+	public boolean equals(Object arg0) {
+		if (arg0 instanceof Tunnel) {
+			return addr == ((Tunnel) arg0).addr;
+		}
+		return false;
+	}
+
+	public byte[] getAddress() {
+		return new byte[] { (byte) (addr >>> 24), (byte) (addr >>> 16), (byte) (addr >>> 8), (byte) addr };
+	}
+
+	public String getHostAddress() {
+		return IPv4.toString(addr);
+	}
+
+	public int hashCode() {
+		return addr;
+	}
+
+	public String toString() {
+		return "/" + IPv4.toString(addr);
+	}
+
+}
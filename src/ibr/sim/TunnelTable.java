@@ -0,0 +1,179 @@
+package ibr.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A host's tunnels, keyed by the peer's packed address. Lookups take constant
+ * time and no lock: the table is an open-addressing array, and every tunnel
+ * carries its own key. Adding and removing tunnels are serialized by the
+ * table's monitor; removals leave tombstones, which are swept out when the
+ * table is rebuilt.
+ *
+ * @author glfrazier
+ *
+ */
+public class TunnelTable {
+
+	private static final Tunnel TOMBSTONE = new Tunnel(0, 0);
+
+	private volatile AtomicReferenceArray<Tunnel> slots = new AtomicReferenceArray<>(8);
+
+	private int size;
+
+	private int tombstones;
+
+	private int pinned;
+
+	private static int hash(int addr) {
+		int h = addr * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return the tunnel to the peer, or null if there is none
+	 */
+	public Tunnel get(int addr) {
+		AtomicReferenceArray<Tunnel> a = slots;
+		int mask = a.length() - 1;
+		int i = hash(addr) & mask;
+		Tunnel t;
+		while ((t = a.get(i)) != null) {
+			if (t != TOMBSTONE && t.getPeer() == addr) {
+				return t;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the tunnel to a peer, creating it if there is none.
+	 */
+	public synchronized Tunnel open(int addr, long now) {
+		Tunnel t = get(addr);
+		if (t != null) {
+			return t;
+		}
+		if ((size + tombstones + 1) * 2 > slots.length()) {
+			rebuild(size + 1 > slots.length() / 4 ? slots.length() * 2 : slots.length());
+		}
+		t = new Tunnel(addr, now);
+		AtomicReferenceArray<Tunnel> a = slots;
+		int mask = a.length() - 1;
+		int i = hash(addr) & mask;
+		Tunnel s;
+		while ((s = a.get(i)) != null && s != TOMBSTONE) {
+			i = (i + 1) & mask;
+		}
+		if (s == TOMBSTONE) {
+			tombstones--;
+		}
+		a.set(i, t);
+		size++;
+		return t;
+	}
+
+	/**
+	 * @return the tunnel that was removed, or null if there was none
+	 */
+	public synchronized Tunnel close(int addr) {
+		AtomicReferenceArray<Tunnel> a = slots;
+		int mask = a.length() - 1;
+		int i = hash(addr) & mask;
+		Tunnel t;
+		while ((t = a.get(i)) != null) {
+			if (t != TOMBSTONE && t.getPeer() == addr) {
+				a.set(i, TOMBSTONE);
+				size--;
+				tombstones++;
+				if (t.isPinned()) {
+					pinned--;
+				}
+				return t;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the tunnel to a peer, creating it if there is none, and pin it so
+	 * that it never expires.
+	 */
+	public synchronized Tunnel pin(int addr, long now) {
+		Tunnel t = open(addr, now);
+		if (!t.isPinned()) {
+			t.setPinned(true);
+			pinned++;
+		}
+		return t;
+	}
+
+	/**
+	 * Remove every unpinned tunnel that has not been used since the cutoff.
+	 *
+	 * @return the tunnels that were removed
+	 */
+	public synchronized List<Tunnel> expire(long cutoff) {
+		List<Tunnel> expired = new ArrayList<>();
+		AtomicReferenceArray<Tunnel> a = slots;
+		for (int i = 0; i < a.length(); i++) {
+			Tunnel t = a.get(i);
+			if (t != null && t != TOMBSTONE && !t.isPinned() && t.getLastUsed() < cutoff) {
+				a.set(i, TOMBSTONE);
+				size--;
+				tombstones++;
+				expired.add(t);
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * Copy the live tunnels into a fresh array, which readers pick up on their
+	 * next lookup.
+	 */
+	private void rebuild(int capacity) {
+		AtomicReferenceArray<Tunnel> old = slots;
+		AtomicReferenceArray<Tunnel> a = new AtomicReferenceArray<>(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < old.length(); j++) {
+			Tunnel t = old.get(j);
+			if (t != null && t != TOMBSTONE) {
+				int i = hash(t.getPeer()) & mask;
+				while (a.get(i) != null) {
+					i = (i + 1) & mask;
+				}
+				a.set(i, t);
+			}
+		}
+		tombstones = 0;
+		slots = a;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of tunnels that may expire
+	 */
+	public synchronized int unpinnedSize() {
+		return size - pinned;
+	}
+
+	public synchronized List<Tunnel> getTunnels() {
+		List<Tunnel> result = new ArrayList<>(size);
+		AtomicReferenceArray<Tunnel> a = slots;
+		for (int i = 0; i < a.length(); i++) {
+			Tunnel t = a.get(i);
+			if (t != null && t != TOMBSTONE) {
+				result.add(t);
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,134 @@
+package ibr.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ibr.core.IPv4;
+import ibr.sim.SimulationMessage;
+import ibr.sim.SimulationMessage.Role;
+import ibr.sim.SimulationMessage.Type;
+
+/**
+ * Round trips through the wire form, at the edges of each field's range.
+ *
+ * @author glfrazier
+ *
+ */
+public class MessageCodecTest {
+
+	private static SimulationMessage message(long id, Role role, Type type, String src, String dst, int srcPort,
+			int dstPort, int packets, long inResponseTo, int subject) {
+		SimulationMessage msg = new SimulationMessage(id, role, type, IPv4.parse(src), IPv4.parse(dst), srcPort,
+				dstPort);
+		msg.setPackets(packets);
+		msg.setInResponseTo(inResponseTo);
+		msg.setSubject(subject);
+		return msg;
+	}
+
+	private static void assertSameFields(SimulationMessage expected, SimulationMessage actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getRole(), actual.getRole());
+		assertEquals(expected.getType(), actual.getType());
+		assertEquals(expected.getSrcIPv4(), actual.getSrcIPv4());
+		assertEquals(expected.getDstIPv4(), actual.getDstIPv4());
+		assertEquals(expected.getSrcPort(), actual.getSrcPort());
+		assertEquals(expected.getDstPort(), actual.getDstPort());
+		assertEquals(expected.getPackets(), actual.getPackets());
+		assertEquals(expected.getInResponseTo(), actual.getInResponseTo());
+		assertEquals(expected.getSubject(), actual.getSubject());
+	}
+
+	private static SimulationMessage roundTrip(SimulationMessage msg) {
+		ByteBuffer buf = ByteBuffer.allocate(MessageCodec.ENCODED_SIZE);
+		MessageCodec.encode(msg, buf);
+		assertEquals(MessageCodec.ENCODED_SIZE, buf.position());
+		buf.flip();
+		SimulationMessage decoded = MessageCodec.decode(buf);
+		assertEquals(0, buf.remaining());
+		return decoded;
+	}
+
+	@Test
+	public void everyFieldSurvivesARoundTrip() {
+		SimulationMessage msg = message(0x0123456789abcdefL, Role.RESPONSE, Type.APPLICATION, "10.1.2.3",
+				"192.168.255.254", 1234, 80, 17, 0x7edcba9876543210L, 0);
+		assertSameFields(msg, roundTrip(msg));
+	}
+
+	@Test
+	public void fieldsAtTheEdgesOfTheirRanges() {
+		// High-bit addresses, IDs and subject; ports above 32767; the most packets
+		SimulationMessage msg = message(-1L, Role.OFFER, Type.INTRODUCTION, "255.255.255.255", "128.0.0.0", 65535,
+				32768, Short.MAX_VALUE, Long.MIN_VALUE, IPv4.parse("200.1.2.3"));
+		assertSameFields(msg, roundTrip(msg));
+		msg = message(0, Role.NONE, Type.NONE, "0.0.0.0", "0.0.0.0", 0, 0, 1, 0, 0);
+		assertSameFields(msg, roundTrip(msg));
+	}
+
+	@Test
+	public void everyTypeAndRoleSurvivesARoundTrip() {
+		for (Type type : Type.values()) {
+			for (Role role : Role.values()) {
+				SimulationMessage msg = message(7, role, type, "10.0.0.1", "10.0.0.2", 1, 2, 3, 4, 5);
+				assertSameFields(msg, roundTrip(msg));
+			}
+		}
+	}
+
+	@Test
+	public void batchesAreMessagesEndToEnd() {
+		List<SimulationMessage> msgs = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			msgs.add(message(i, Role.REQUEST, Type.APPLICATION, "10.0.0.1", "10.0.0." + (i + 2), 40000 + i, 80, i + 1,
+					0, 0));
+		}
+		// Room for four messages and part of a fifth
+		ByteBuffer buf = ByteBuffer.allocate(4 * MessageCodec.ENCODED_SIZE + 10);
+		assertEquals(4, MessageCodec.encode(msgs, 3, buf));
+		assertEquals(4 * MessageCodec.ENCODED_SIZE, buf.position());
+		buf.flip();
+		List<SimulationMessage> decoded = new ArrayList<>();
+		assertEquals(4, MessageCodec.decode(buf, decoded));
+		for (int i = 0; i < 4; i++) {
+			assertSameFields(msgs.get(3 + i), decoded.get(i));
+		}
+		buf.clear();
+		assertEquals(1, MessageCodec.encode(msgs, 9, buf));
+	}
+
+	@Test
+	public void badVersionsAreSkipped() {
+		SimulationMessage a = message(1, Role.REQUEST, Type.APPLICATION, "10.0.0.1", "10.0.0.2", 1, 2, 1, 0, 0);
+		SimulationMessage b = message(2, Role.RESPONSE, Type.APPLICATION, "10.0.0.2", "10.0.0.1", 2, 1, 1, 1, 0);
+		ByteBuffer buf = ByteBuffer.allocate(3 * MessageCodec.ENCODED_SIZE);
+		MessageCodec.encode(a, buf);
+		int bad = buf.position();
+		MessageCodec.encode(a, buf);
+		MessageCodec.encode(b, buf);
+		buf.put(bad, (byte) (MessageCodec.VERSION + 1));
+		buf.flip();
+		List<SimulationMessage> decoded = new ArrayList<>();
+		assertEquals(2, MessageCodec.decode(buf, decoded));
+		assertSameFields(a, decoded.get(0));
+		assertSameFields(b, decoded.get(1));
+	}
+
+	@Test
+	public void unknownTypesAndTruncatedMessagesAreRejected() {
+		ByteBuffer buf = ByteBuffer.allocate(MessageCodec.ENCODED_SIZE);
+		MessageCodec.encode(buf, Type.values().length, 0, 0, 0, 0, 0, 1, 0, 0, 0);
+		buf.flip();
+		assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(buf));
+		assertEquals(0, buf.remaining());
+		ByteBuffer shortBuf = ByteBuffer.allocate(MessageCodec.ENCODED_SIZE - 1);
+		assertThrows(IllegalArgumentException.class, () -> MessageCodec.decode(shortBuf));
+	}
+
+}
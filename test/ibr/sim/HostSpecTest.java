@@ -0,0 +1,165 @@
+package ibr.sim;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import ibr.core.IPv4;
+
+/**
+ * The bounds of every form of host spec, and the sets built from them.
+ *
+ * @author glfrazier
+ *
+ */
+public class HostSpecTest {
+
+	private static int addr(String s) {
+		return IPv4.parse(s);
+	}
+
+	@Test
+	public void addressRangeIncludesBothBounds() {
+		HostSpec spec = HostSpec.parse("10.0.0.10-10.0.0.20");
+		assertEquals(11, spec.size());
+		assertTrue(spec.contains(addr("10.0.0.10")));
+		assertTrue(spec.contains(addr("10.0.0.20")));
+		assertFalse(spec.contains(addr("10.0.0.9")));
+		assertFalse(spec.contains(addr("10.0.0.21")));
+	}
+
+	@Test
+	public void addressRangeCrossesOctets() {
+		HostSpec spec = HostSpec.parse("10.0.0.250-10.0.1.5");
+		assertEquals(12, spec.size());
+		assertTrue(spec.contains(addr("10.0.0.255")));
+		assertTrue(spec.contains(addr("10.0.1.0")));
+	}
+
+	@Test
+	public void addressRangeMayHaveSpacesAroundTheDash() {
+		HostSpec spec = HostSpec.parse("10.0.0.1 - 10.0.0.9");
+		assertEquals(9, spec.size());
+		assertTrue(spec.contains(addr("10.0.0.1")));
+		assertTrue(spec.contains(addr("10.0.0.9")));
+	}
+
+	@Test
+	public void singleAddressRange() {
+		HostSpec spec = HostSpec.parse("10.0.0.7-10.0.0.7");
+		assertEquals(1, spec.size());
+	}
+
+	@Test
+	public void emptyRangeIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> HostSpec.parse("10.0.0.9-10.0.0.1"));
+	}
+
+	@Test
+	public void cidrBlockCoversItsPrefix() {
+		HostSpec spec = HostSpec.parse("10.0.0.4/30");
+		assertEquals(4, spec.size());
+		assertFalse(spec.contains(addr("10.0.0.3")));
+		assertTrue(spec.contains(addr("10.0.0.4")));
+		assertTrue(spec.contains(addr("10.0.0.7")));
+		assertFalse(spec.contains(addr("10.0.0.8")));
+		assertEquals(1, HostSpec.parse("10.0.0.4/32").size());
+		assertEquals(1L << 32, HostSpec.parse("0.0.0.0/0").size());
+	}
+
+	@Test
+	public void cidrBlockMasksHostBits() {
+		HostSpec spec = HostSpec.parse("10.0.0.5/30");
+		assertEquals(addr("10.0.0.4"), spec.getLow(0));
+		assertEquals(addr("10.0.0.7"), spec.getHigh(0));
+	}
+
+	@Test
+	public void badPrefixIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> HostSpec.parse("10.0.0.0/33"));
+		assertThrows(IllegalArgumentException.class, () -> HostSpec.parse("10.0.0.0/-1"));
+	}
+
+	@Test
+	public void highAddressesCompareUnsigned() {
+		HostSpec spec = HostSpec.parse("255.255.255.250-255.255.255.255");
+		assertEquals(6, spec.size());
+		assertTrue(spec.contains(addr("255.255.255.255")));
+		assertFalse(spec.contains(addr("10.0.0.1")));
+	}
+
+	@Test
+	public void octetRangesIncludeBothBounds() {
+		HostSpec spec = HostSpec.parse("10.0.1-3.1-254");
+		assertEquals(3 * 254, spec.size());
+		assertTrue(spec.contains(addr("10.0.1.1")));
+		assertTrue(spec.contains(addr("10.0.3.254")));
+		assertFalse(spec.contains(addr("10.0.0.1")));
+		assertFalse(spec.contains(addr("10.0.4.1")));
+		assertFalse(spec.contains(addr("10.0.2.0")));
+		assertFalse(spec.contains(addr("10.0.2.255")));
+	}
+
+	@Test
+	public void octetRangesInFirstAndLastOctets() {
+		HostSpec spec = HostSpec.parse("10-11.0.0.0-5");
+		assertEquals(12, spec.size());
+		assertTrue(spec.contains(addr("11.0.0.5")));
+		assertFalse(spec.contains(addr("11.0.0.6")));
+	}
+
+	@Test
+	public void badOctetRangesAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> HostSpec.parse("10.0.0.1-256"));
+		assertThrows(IllegalArgumentException.class, () -> HostSpec.parse("10.0.0.5-1"));
+		assertThrows(IllegalArgumentException.class, () -> HostSpec.parse("10.0.1"));
+		assertThrows(IllegalArgumentException.class, () -> HostSpec.parse("10.0.0.1-2-3"));
+	}
+
+	@Test
+	public void listsCombineTheirParts() {
+		HostSpec spec = HostSpec.parse("10.0.0.1, 10.0.1.0/31,,10.0.2.1-10.0.2.3");
+		assertEquals(3, spec.getRangeCount());
+		assertEquals(6, spec.size());
+	}
+
+	@Test
+	public void hostSetSortsAndRemovesOverlaps() {
+		HostSet set = new HostSet(HostSpec.parse("10.0.0.5-10.0.0.8,10.0.0.1-10.0.0.6,255.0.0.1"));
+		assertArrayEquals(new int[] { addr("10.0.0.1"), addr("10.0.0.2"), addr("10.0.0.3"), addr("10.0.0.4"),
+				addr("10.0.0.5"), addr("10.0.0.6"), addr("10.0.0.7"), addr("10.0.0.8"), addr("255.0.0.1") },
+				set.toArray());
+	}
+
+	@Test
+	public void hostSetTagsExactlyTheHostsOfASpec() {
+		HostSet set = new HostSet(HostSpec.parse("10.0.0.0/24"));
+		assertEquals(256, set.size());
+		assertEquals(11, set.tagAll(HostSpec.parse("10.0.0.10-10.0.0.20"), 7));
+		assertEquals(0, set.getTag(set.indexOf(addr("10.0.0.9"))));
+		assertEquals(7, set.getTag(set.indexOf(addr("10.0.0.10"))));
+		assertEquals(7, set.getTag(set.indexOf(addr("10.0.0.20"))));
+		assertEquals(0, set.getTag(set.indexOf(addr("10.0.0.21"))));
+		assertEquals(0, set.tagAll(HostSpec.parse("10.0.1.0/24"), 9));
+	}
+
+	@Test
+	public void hostSetPutAndRemove() {
+		HostSet set = new HostSet();
+		set.put(addr("10.0.0.3"), 1);
+		set.put(addr("200.0.0.1"), 2);
+		set.put(addr("10.0.0.1"), 3);
+		assertArrayEquals(new int[] { addr("10.0.0.1"), addr("10.0.0.3"), addr("200.0.0.1") }, set.toArray());
+		assertEquals(1, set.ceilingIndex(addr("10.0.0.2")));
+		assertEquals(3, set.ceilingIndex(addr("201.0.0.0")));
+		assertTrue(set.remove(addr("10.0.0.3")));
+		assertFalse(set.remove(addr("10.0.0.3")));
+		assertFalse(set.contains(addr("10.0.0.3")));
+		assertEquals(2, set.getTag(set.indexOf(addr("200.0.0.1"))));
+	}
+
+}
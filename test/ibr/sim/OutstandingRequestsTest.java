@@ -0,0 +1,127 @@
+package ibr.sim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lookups after deletes, which must still find every request whose run of
+ * probes passed through the deleted slot.
+ *
+ * @author glfrazier
+ *
+ */
+public class OutstandingRequestsTest {
+
+	private static class TestRequest extends OutstandingRequests.Request {
+
+		TestRequest(long id) {
+			this.id = id;
+		}
+
+		@Override
+		protected void expire() {
+		}
+
+	}
+
+	/**
+	 * @return <code>n</code> IDs whose home slot in a table of 16 is
+	 *         <code>slot</code>
+	 */
+	private static List<Long> idsHomedAt(int slot, int n) {
+		List<Long> ids = new ArrayList<>();
+		for (long id = 1; ids.size() < n; id++) {
+			long h = id * 0x9e3779b97f4a7c15L;
+			if ((((int) (h ^ (h >>> 32))) & 15) == slot) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	private static void assertAllFound(OutstandingRequests table, Map<Long, TestRequest> model) {
+		assertEquals(model.size(), table.size());
+		for (Map.Entry<Long, TestRequest> e : model.entrySet()) {
+			assertSame(e.getValue(), table.get(e.getKey()), "request " + e.getKey());
+		}
+	}
+
+	@Test
+	public void deleteFromTheMiddleOfARun() {
+		OutstandingRequests table = new OutstandingRequests();
+		Map<Long, TestRequest> model = new HashMap<>();
+		for (long id : idsHomedAt(3, 8)) {
+			TestRequest r = new TestRequest(id);
+			table.put(r);
+			model.put(id, r);
+		}
+		for (long id : idsHomedAt(3, 8)) {
+			assertSame(model.remove(id), table.remove(id));
+			assertNull(table.get(id));
+			assertNull(table.remove(id));
+			assertAllFound(table, model);
+		}
+	}
+
+	@Test
+	public void deleteFromARunThatWrapsAround() {
+		OutstandingRequests table = new OutstandingRequests();
+		Map<Long, TestRequest> model = new HashMap<>();
+		List<Long> ids = new ArrayList<>(idsHomedAt(14, 4));
+		ids.addAll(idsHomedAt(0, 3));
+		ids.addAll(idsHomedAt(15, 2));
+		for (long id : ids) {
+			TestRequest r = new TestRequest(id);
+			table.put(r);
+			model.put(id, r);
+		}
+		for (int i = 0; i < ids.size(); i += 2) {
+			long id = ids.get(i);
+			assertSame(model.remove(id), table.remove(id));
+			assertAllFound(table, model);
+		}
+	}
+
+	@Test
+	public void putReplacesARequestWithTheSameId() {
+		OutstandingRequests table = new OutstandingRequests();
+		TestRequest first = new TestRequest(42);
+		TestRequest second = new TestRequest(42);
+		table.put(first);
+		table.put(second);
+		assertEquals(1, table.size());
+		assertSame(second, table.get(42));
+	}
+
+	@Test
+	public void randomPutsAndRemovesMatchAMap() {
+		Random random = new Random(1);
+		OutstandingRequests table = new OutstandingRequests();
+		Map<Long, TestRequest> model = new HashMap<>();
+		for (int step = 0; step < 200000; step++) {
+			// A small key space keeps the runs long and the deletes frequent
+			long id = random.nextInt(step < 100000 ? 64 : 4096) * 0x100000001L;
+			if (random.nextBoolean()) {
+				TestRequest r = new TestRequest(id);
+				table.put(r);
+				model.put(id, r);
+			} else {
+				assertSame(model.remove(id), table.remove(id));
+			}
+			if (step % 1000 == 0) {
+				assertAllFound(table, model);
+			}
+		}
+		assertAllFound(table, model);
+	}
+
+}
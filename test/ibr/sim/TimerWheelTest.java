@@ -0,0 +1,166 @@
+package ibr.sim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Expiry bounds of the wheel, driven by {@link TimerWheel#advance(long)}
+ * rather than by a running simulation.
+ *
+ * @author glfrazier
+ *
+ */
+public class TimerWheelTest {
+
+	private static final long TICK = 1000;
+
+	private static class CountingTimeout extends TimerWheel.Timeout {
+
+		int expired;
+
+		long expiredAt = -1;
+
+		long now;
+
+		@Override
+		protected void expire() {
+			expired++;
+			expiredAt = now;
+		}
+
+	}
+
+	/**
+	 * Advance the wheel one nanosecond at a time over [from, to], recording
+	 * the time at which the timeout expires.
+	 */
+	private static void advanceTo(TimerWheel wheel, CountingTimeout t, long from, long to) {
+		for (long now = from; now <= to; now++) {
+			t.now = now;
+			wheel.advance(now);
+		}
+	}
+
+	@Test
+	public void expiresAtTheFirstTickAtOrAfterItsDeadline() {
+		TimerWheel wheel = new TimerWheel(TICK, 8);
+		CountingTimeout t = new CountingTimeout();
+		wheel.schedule(t, 2500);
+		advanceTo(wheel, t, 0, 2999);
+		assertEquals(0, t.expired);
+		assertTrue(t.isScheduled());
+		advanceTo(wheel, t, 3000, 5000);
+		assertEquals(1, t.expired);
+		assertEquals(3000, t.expiredAt);
+		assertFalse(t.isScheduled());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void expiresOnTheTickOfAnExactDeadline() {
+		TimerWheel wheel = new TimerWheel(TICK, 8);
+		CountingTimeout t = new CountingTimeout();
+		wheel.schedule(t, 3000);
+		assertEquals(0, wheel.advance(2999));
+		assertEquals(1, wheel.advance(3000));
+	}
+
+	@Test
+	public void coarseAdvancesExpireEverythingDue() {
+		TimerWheel wheel = new TimerWheel(TICK, 8);
+		CountingTimeout[] ts = new CountingTimeout[20];
+		for (int i = 0; i < ts.length; i++) {
+			ts[i] = new CountingTimeout();
+			wheel.schedule(ts[i], 1 + i * 700L);
+		}
+		assertEquals(20, wheel.size());
+		int n = wheel.advance(7000);
+		for (int i = 0; i < ts.length; i++) {
+			assertEquals(1 + i * 700L <= 7000 ? 1 : 0, ts[i].expired, "timeout " + i);
+		}
+		assertEquals(n, 20 - wheel.size());
+		wheel.advance(100000);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void waitsForLaterTurnsOfTheWheel() {
+		TimerWheel wheel = new TimerWheel(TICK, 8);
+		CountingTimeout t = new CountingTimeout();
+		// Three turns of the wheel and a bit
+		wheel.schedule(t, 3 * 8 * TICK + 1500);
+		for (long now = 0; now < 3 * 8 * TICK + 1500; now += TICK / 4) {
+			t.now = now;
+			wheel.advance(now);
+		}
+		assertEquals(0, t.expired);
+		advanceTo(wheel, t, 3 * 8 * TICK + 1500, 3 * 8 * TICK + 3000);
+		assertEquals(1, t.expired);
+		assertEquals(3 * 8 * TICK + 2000, t.expiredAt);
+	}
+
+	@Test
+	public void cancelledTimeoutsDoNotExpire() {
+		TimerWheel wheel = new TimerWheel(TICK, 8);
+		CountingTimeout a = new CountingTimeout();
+		CountingTimeout b = new CountingTimeout();
+		CountingTimeout c = new CountingTimeout();
+		// All three share a bucket, so the cancel unlinks from the middle
+		wheel.schedule(a, 1500);
+		wheel.schedule(b, 1600);
+		wheel.schedule(c, 1700);
+		assertTrue(wheel.cancel(b));
+		assertFalse(wheel.cancel(b));
+		assertFalse(b.isScheduled());
+		assertEquals(2, wheel.advance(10000));
+		assertEquals(1, a.expired);
+		assertEquals(0, b.expired);
+		assertEquals(1, c.expired);
+		assertFalse(wheel.cancel(a));
+	}
+
+	@Test
+	public void reschedulingMovesTheDeadline() {
+		TimerWheel wheel = new TimerWheel(TICK, 8);
+		CountingTimeout t = new CountingTimeout();
+		wheel.schedule(t, 1500);
+		wheel.schedule(t, 4500);
+		assertEquals(1, wheel.size());
+		advanceTo(wheel, t, 0, 4999);
+		assertEquals(0, t.expired);
+		advanceTo(wheel, t, 5000, 5000);
+		assertEquals(1, t.expired);
+		assertEquals(4500, t.getDeadline());
+	}
+
+	@Test
+	public void expiredTimeoutsMayScheduleAgain() {
+		TimerWheel wheel = new TimerWheel(TICK, 8);
+		int[] fired = new int[1];
+		TimerWheel.Timeout t = new TimerWheel.Timeout() {
+			@Override
+			protected void expire() {
+				if (++fired[0] < 5) {
+					wheel.schedule(this, getDeadline() + TICK);
+				}
+			}
+		};
+		wheel.schedule(t, 500);
+		for (long now = 0; now <= 10 * TICK; now += 100) {
+			wheel.advance(now);
+		}
+		assertEquals(5, fired[0]);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void badGeometryIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new TimerWheel(0, 8));
+		assertThrows(IllegalArgumentException.class, () -> new TimerWheel(TICK, 12));
+	}
+
+}